@@ -22,8 +22,28 @@ import android.test.ProviderTestCase2;
 import android.test.mock.MockContentResolver;
 import android.util.Log;
 
+import com.helpshift.kvstore.database.ReaderPool;
+import com.helpshift.kvstore.database.SQLiteDatabaseHelper;
+import com.helpshift.kvstore.database.SQLiteStorage;
+import com.helpshift.kvstore.storage.ChangeLog;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Executor;
 
 
 public class DBSharedPreferenceImplTest extends AndroidTestCase {
@@ -56,6 +76,320 @@ public class DBSharedPreferenceImplTest extends AndroidTestCase {
         assertEquals("value2", value2);
     }
 
+    public void testCommit() {
+        setupPreference();
+        assertTrue(sharedPreferences.edit().putString("key1", "value1").commit());
+        assertEquals("value1", sharedPreferences.getString("key1", ""));
+        assertTrue(sharedPreferences.edit().remove("key1").commit());
+        assertEquals("", sharedPreferences.getString("key1", ""));
+    }
+
+    public void testCommitFailsInsteadOfHangingWhenWriteThrows() {
+        PreferenceStorage storage = new PreferenceStorage() {
+            @Override
+            public void open() {
+            }
+
+            @Override
+            public Object get(String key) {
+                return null;
+            }
+
+            @Override
+            public Map<String, Object> getMany(Collection<String> keys) {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) {
+            }
+
+            @Override
+            public List<String> keys() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void write(Map<String, Object> changes, boolean clear, Durability durability) {
+                throw new IllegalStateException("Storage is gone");
+            }
+        };
+        SharedPreferencesImpl preferences = new SharedPreferencesImpl("failingWrite", storage,
+                DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+        assertFalse(preferences.edit().putString("key", "value").commit());
+        assertEquals(1, preferences.getMetrics().getCommitFailures());
+
+        try {
+            preferences.edit().putStringSet("set", new HashSet<>(Arrays.asList("a", null)));
+            fail("Set with a null element was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            preferences.edit().putAll(Collections.singletonMap("set", new HashSet<>(Arrays.asList(1, 2))));
+            fail("Set of Integer was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testLegacyTextIsParsedOnce() {
+        final Map<String, Object> rows = new HashMap<>();
+        rows.put("int", "42");
+        rows.put("flag", "true");
+        rows.put("padded", "007");
+        PreferenceStorage storage = new PreferenceStorage() {
+            @Override
+            public void open() {
+            }
+
+            @Override
+            public Object get(String key) {
+                return rows.get(key);
+            }
+
+            @Override
+            public Map<String, Object> getMany(Collection<String> keys) {
+                Map<String, Object> values = new HashMap<>();
+                for (String key : keys) {
+                    values.put(key, rows.get(key));
+                }
+                return values;
+            }
+
+            @Override
+            public void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) {
+            }
+
+            @Override
+            public List<String> keys() {
+                return new ArrayList<>(rows.keySet());
+            }
+
+            @Override
+            public void write(Map<String, Object> changes, boolean clear, Durability durability) {
+            }
+        };
+        SharedPreferencesImpl preferences = new SharedPreferencesImpl("legacyText", storage,
+                DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+        assertEquals(42, preferences.getInt("int", 0));
+        assertTrue(preferences.getBoolean("flag", false));
+        assertEquals(7, preferences.getInt("padded", 0));
+
+        Map<String, ?> cached = preferences.getMany(Arrays.asList("int", "flag", "padded"));
+        assertEquals(42, cached.get("int"));
+        assertEquals(true, cached.get("flag"));
+        /*Parsing it loses the padding, the text is kept */
+        assertEquals("007", cached.get("padded"));
+        assertEquals(42, preferences.getInt("int", 0));
+    }
+
+    public void testForEachMergesUnwrittenEdits() {
+        setupPreference();
+        SharedPreferences.Editor editor = sharedPreferences.edit().clear();
+        for (int i = 0; i < SharedPreferencesImpl.SCAN_PAGE_SIZE * 2 + 1; i++) {
+            editor.putInt("scan" + i, i);
+        }
+        assertTrue(editor.commit());
+        sharedPreferences.edit().remove("scan0").putInt("scan1", -1).putInt("scanNew", 0).apply();
+
+        final Map<String, Object> visited = new HashMap<>();
+        ((SharedPreferencesImpl) sharedPreferences).forEach(new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                assertNull(visited.put(key, value));
+                return true;
+            }
+        });
+        assertEquals(SharedPreferencesImpl.SCAN_PAGE_SIZE * 2 + 1, visited.size());
+        assertFalse(visited.containsKey("scan0"));
+        assertEquals(-1, visited.get("scan1"));
+        assertEquals(0, visited.get("scanNew"));
+    }
+
+    public void testPrefixAndRangeScans() {
+        setupPreference();
+        SharedPreferencesImpl preferences = (SharedPreferencesImpl) sharedPreferences;
+        SharedPreferences.Editor editor = preferences.edit().clear();
+        for (int i = 0; i < 10; i++) {
+            editor.putInt("feature." + i + ".enabled", i);
+            editor.putLong("cache.user." + i + ".ts", i);
+        }
+        assertTrue(editor.commit());
+        preferences.edit().remove("feature.0.enabled").putBoolean("feature.new", true).apply();
+
+        SortedMap<String, ?> features = preferences.getByPrefix("feature.");
+        assertEquals(10, features.size());
+        assertEquals("feature.1.enabled", features.firstKey());
+        assertEquals("feature.new", features.lastKey());
+
+        SortedMap<String, ?> page = preferences.getRange("cache.", "cache/", 4);
+        assertEquals(Arrays.asList("cache.user.0.ts", "cache.user.1.ts", "cache.user.2.ts", "cache.user.3.ts"),
+                new ArrayList<>(page.keySet()));
+        page = preferences.getRange(page.lastKey() + '\0', "cache/", 100);
+        assertEquals(6, page.size());
+        assertEquals("cache.user.4.ts", page.firstKey());
+        assertTrue(preferences.getRange("cache/", "cache.", 10).isEmpty());
+    }
+
+    public void testObserveEmitsCurrentThenLatestDistinctValue() throws Exception {
+        setupPreference();
+        SharedPreferencesImpl preferences = (SharedPreferencesImpl) sharedPreferences;
+        assertTrue(preferences.edit().putInt("observed", 0).commit());
+        final List<Runnable> queued = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                synchronized (queued) {
+                    queued.add(command);
+                }
+            }
+        };
+        final List<Integer> values = new ArrayList<>();
+        ValueStream.Subscription subscription = preferences.observe("observed", -1).subscribe(
+                new ValueObserver<Integer>() {
+                    @Override
+                    public void onValue(Integer value) {
+                        values.add(value);
+                    }
+                }, executor);
+        runQueued(queued);
+        assertEquals(Arrays.asList(0), values);
+
+        for (int i = 1; i < 1000; i++) {
+            preferences.edit().putInt("observed", i).apply();
+        }
+        assertTrue(preferences.edit().putInt("observed", 1000).commit());
+        /*The change set of the last batch is dispatched right after commit() returns */
+        long deadline = System.currentTimeMillis() + 5000;
+        while (values.size() < 2 && System.currentTimeMillis() < deadline) {
+            runQueued(queued);
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(0, 1000), values);
+
+        subscription.cancel();
+        assertTrue(preferences.edit().putInt("observed", 1001).commit());
+        Thread.sleep(100);
+        runQueued(queued);
+        assertEquals(Arrays.asList(0, 1000), values);
+    }
+
+    public void testChangesSinceVisitsLatestChangeOfEachKey() {
+        getContext().deleteDatabase("change_log_test.db");
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), "change_log_test.db");
+        try {
+            SQLiteStorage storage = new SQLiteStorage("changeLog", helper, null);
+            storage.setChangeLogRetention(4);
+            SharedPreferencesImpl preferences = new SharedPreferencesImpl("changeLog", storage,
+                    DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+            assertTrue(preferences.edit().putString("a", "1").putString("b", "1").commit());
+            long sequence = preferences.getChangeSequence();
+
+            assertTrue(preferences.edit().putString("a", "2").commit());
+            assertTrue(preferences.edit().remove("b").putString("c", "1").commit());
+            assertTrue(preferences.edit().putString("a", "3").commit());
+            final Map<String, Object> changes = new LinkedHashMap<>();
+            PreferenceVisitor collector = new PreferenceVisitor() {
+                @Override
+                public boolean visit(String key, Object value) {
+                    changes.put(key, value);
+                    return true;
+                }
+            };
+            long next = preferences.getChangesSince(sequence, collector);
+            assertEquals(preferences.getChangeSequence(), next);
+            assertEquals(Arrays.asList("b", "c", "a"), new ArrayList<>(changes.keySet()));
+            assertNull(changes.get("b"));
+            assertEquals("1", changes.get("c"));
+            assertEquals("3", changes.get("a"));
+
+            changes.clear();
+            assertEquals(next, preferences.getChangesSince(next, collector));
+            assertTrue(changes.isEmpty());
+
+            /*Only the latest 4 changes are kept, this one pushes out the first change after sequence */
+            assertTrue(preferences.edit().putString("d", "1").commit());
+            assertEquals(ChangeLog.PRUNED, preferences.getChangesSince(sequence, collector));
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testScanVisitorCanReadWithSingleReaderConnection() throws Exception {
+        getContext().deleteDatabase("scan_reader_test.db");
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), "scan_reader_test.db");
+        helper.setWriteAheadLoggingOnOpen(true);
+        try {
+            final SQLiteStorage storage = new SQLiteStorage("scanReader", helper, new ReaderPool(helper, 1));
+            storage.open();
+            Map<String, Object> changes = new HashMap<>();
+            for (int i = 0; i < 5; i++) {
+                changes.put("key" + i, i);
+            }
+            storage.write(changes, false, Durability.FULL);
+            final List<Object> nested = new ArrayList<>();
+            /*Pages of 2 rows, the nested reads need the only reader connection between pages */
+            storage.scan("", null, 2, new PreferenceVisitor() {
+                @Override
+                public boolean visit(String key, Object value) {
+                    nested.add(storage.get(key));
+                    return true;
+                }
+            });
+            assertEquals(Arrays.<Object>asList(0, 1, 2, 3, 4), nested);
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testXmlImportKeepsTypes() throws Exception {
+        File xmlFile = new File(getContext().getCacheDir(), "xmlImport.xml");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(xmlFile), "UTF-8");
+        try {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n"
+                    + "    <string name=\"string\">a &amp; b</string>\n"
+                    + "    <int name=\"int\" value=\"-3\" />\n"
+                    + "    <long name=\"long\" value=\"9000000000\" />\n"
+                    + "    <float name=\"float\" value=\"1.5\" />\n"
+                    + "    <boolean name=\"boolean\" value=\"true\" />\n"
+                    + "    <set name=\"set\">\n        <string>x</string>\n        <string>y</string>\n    </set>\n"
+                    + "</map>\n");
+        } finally {
+            writer.close();
+        }
+        final List<Integer> progress = new ArrayList<>();
+        XmlPreferencesImporter importer = new XmlPreferencesImporter(getContext());
+        importer.setBatchSize(2);
+        importer.setProgressListener(new XmlPreferencesImporter.ProgressListener() {
+            @Override
+            public void onProgress(String preferenceName, int importedEntries, long bytesRead, long totalBytes) {
+                progress.add(importedEntries);
+            }
+        });
+        importer.importFile(xmlFile, "xmlImport");
+
+        SharedPreferences preferences = SharedPreferencesContext.getInstance(getContext())
+                .getSharedPreference(getContext(), "xmlImport");
+        assertEquals("a & b", preferences.getString("string", null));
+        assertEquals(-3, preferences.getInt("int", 0));
+        assertEquals(9000000000L, preferences.getLong("long", 0));
+        assertEquals(1.5f, preferences.getFloat("float", 0), 0f);
+        assertTrue(preferences.getBoolean("boolean", false));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), preferences.getStringSet("set", null));
+        assertEquals(Arrays.asList(2, 4, 6, 6), progress);
+        assertFalse(xmlFile.exists());
+    }
+
+    private static void runQueued(List<Runnable> queued) {
+        List<Runnable> runnables;
+        synchronized (queued) {
+            runnables = new ArrayList<>(queued);
+            queued.clear();
+        }
+        for (Runnable runnable : runnables) {
+            runnable.run();
+        }
+    }
+
     private void setupPreference() {
         MockContentResolver mockContentResolver = new MockContentResolver();
         ContextWithMockContentResolver mContext = new ContextWithMockContentResolver(mockContentResolver, getContext());
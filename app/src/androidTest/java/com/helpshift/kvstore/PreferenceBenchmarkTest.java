@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.helpshift.kvstore.database.PreferencesContent;
+import com.helpshift.kvstore.database.PreferencesStatements;
+import com.helpshift.kvstore.database.ReaderPool;
+import com.helpshift.kvstore.database.SQLiteDatabaseHelper;
+import com.helpshift.kvstore.database.SQLiteStorage;
+import com.helpshift.kvstore.database.ValueCodec;
+import com.helpshift.kvstore.storage.LogStorage;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+import com.helpshift.kvstore.storage.SnapshotStorage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Micro benchmarks of the preference store. Results are written to logcat under the
+ * "PreferenceBenchmark" tag, run with
+ * {@code adb shell am instrument -w -e class com.helpshift.kvstore.PreferenceBenchmarkTest ...}.
+ */
+public class PreferenceBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = "PreferenceBenchmark";
+
+    private static final String DATABASE_NAME = "benchmark.db";
+
+    private static final int KEY_COUNT = 500;
+
+    private static final int ROUNDS = 5;
+
+    private static final String COLD_START_DATABASE_NAME = "benchmark_cold_start.db";
+
+    private static final int COLD_START_KEY_COUNT = 200;
+
+    /*Work the app does between starting the preload and its first preference read */
+    private static final long STARTUP_WORK_MILLIS = 100;
+
+    private static final String STRING_SET_DATABASE_NAME = "benchmark_string_set.db";
+
+    private static final int STRING_SET_SIZE = 1000;
+
+    private static final int STRING_SET_READS = 200;
+
+    /*Delimiter string sets were joined with before they had their own encoding */
+    private static final String LEGACY_SEPARATOR = ":-:";
+
+    private static final String CONCURRENT_READ_DATABASE_NAME = "benchmark_concurrent_read.db";
+
+    private static final int CONCURRENT_READ_KEY_COUNT = 1000;
+
+    private static final int CONCURRENT_READS = 500;
+
+    private static final int READER_CONNECTIONS = 2;
+
+    private static final String WRITE_AMPLIFICATION_DATABASE_NAME = "benchmark_write_amplification.db";
+
+    private static final String WRITE_AMPLIFICATION_LOG_NAME = "benchmark_write_amplification.log";
+
+    private static final int WRITE_AMPLIFICATION_KEY_COUNT = 200;
+
+    private static final int WRITE_AMPLIFICATION_COMMITS = 500;
+
+    private static final int WRITE_AMPLIFICATION_BATCH_SIZE = 4;
+
+    private static final String SNAPSHOT_DATABASE_NAME = "benchmark_snapshot.db";
+
+    private static final String SNAPSHOT_FILE_NAME = "benchmark_snapshot.snapshot";
+
+    private static final int SNAPSHOT_KEY_COUNT = 10000;
+
+    private static final int SNAPSHOT_READS = 1000;
+
+    private static final String BULK_DATABASE_NAME = "benchmark_bulk.db";
+
+    /*Config keys read together at startup */
+    private static final int BULK_KEY_COUNT = 40;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private SQLiteDatabase mSqLiteDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mSqLiteDatabase = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSqLiteDatabase.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        getContext().deleteDatabase(COLD_START_DATABASE_NAME);
+        getContext().deleteDatabase(STRING_SET_DATABASE_NAME);
+        getContext().deleteDatabase(CONCURRENT_READ_DATABASE_NAME);
+        getContext().deleteDatabase(WRITE_AMPLIFICATION_DATABASE_NAME);
+        new File(getContext().getFilesDir(), WRITE_AMPLIFICATION_LOG_NAME).delete();
+        getContext().deleteDatabase(SNAPSHOT_DATABASE_NAME);
+        new File(getContext().getFilesDir(), SNAPSHOT_FILE_NAME).delete();
+        getContext().deleteDatabase(BULK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testCommitCostPerKey() {
+        PreferencesContent.createTableQuery("legacyCommit", mSqLiteDatabase);
+        PreferencesContent.createTableQuery("upsertCommit", mSqLiteDatabase);
+        PreferencesStatements statements = new PreferencesStatements("upsertCommit", mSqLiteDatabase);
+
+        long legacyNanos = 0;
+        long upsertNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            /*First round inserts every key, the following ones update them */
+            long start = System.nanoTime();
+            commitWithLookup("legacyCommit", round);
+            legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            commitWithUpsert(statements, round);
+            upsertNanos += System.nanoTime() - start;
+        }
+        statements.close();
+
+        long keys = (long) KEY_COUNT * ROUNDS;
+        Log.i(TAG, "commit select+insert/update: " + legacyNanos / keys + " ns/key");
+        Log.i(TAG, "commit compiled upsert: " + upsertNanos / keys + " ns/key");
+        assertEquals(KEY_COUNT, countRows("legacyCommit"));
+        assertEquals(KEY_COUNT, countRows("upsertCommit"));
+    }
+
+    public void testBulkReadAndWrite() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        for (int i = 0; i < BULK_KEY_COUNT; i++) {
+            settings.put("config" + i, "value" + i);
+        }
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), BULK_DATABASE_NAME);
+        try {
+            long perKeyWriteNanos = 0;
+            long putAllNanos = 0;
+            long perKeyReadNanos = 0;
+            long getManyNanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                SharedPreferencesImpl sharedPreferences = openBulkStore(helper);
+                long start = System.nanoTime();
+                SharedPreferences.Editor editor = sharedPreferences.edit();
+                for (Map.Entry<String, Object> entry : settings.entrySet()) {
+                    editor.putString(entry.getKey(), (String) entry.getValue());
+                }
+                assertTrue(editor.commit());
+                perKeyWriteNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                assertTrue(sharedPreferences.edit().putAll(settings).commit());
+                putAllNanos += System.nanoTime() - start;
+
+                /*Fresh stores, so every key misses the cache */
+                sharedPreferences = openBulkStore(helper);
+                start = System.nanoTime();
+                for (String key : settings.keySet()) {
+                    assertNotNull(sharedPreferences.getString(key, null));
+                }
+                perKeyReadNanos += System.nanoTime() - start;
+
+                sharedPreferences = openBulkStore(helper);
+                start = System.nanoTime();
+                assertEquals(settings, sharedPreferences.getMany(settings.keySet()));
+                getManyNanos += System.nanoTime() - start;
+            }
+            Log.i(TAG, "write " + BULK_KEY_COUNT + " keys, put per key: " + perKeyWriteNanos / ROUNDS / 1000 + " us");
+            Log.i(TAG, "write " + BULK_KEY_COUNT + " keys, putAll: " + putAllNanos / ROUNDS / 1000 + " us");
+            Log.i(TAG, "uncached read of " + BULK_KEY_COUNT + " keys, get per key: "
+                    + perKeyReadNanos / ROUNDS / 1000 + " us");
+            Log.i(TAG, "uncached read of " + BULK_KEY_COUNT + " keys, getMany: " + getManyNanos / ROUNDS / 1000 + " us");
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * @return a store on the bulk database with an empty cache, its table already opened.
+     */
+    private static SharedPreferencesImpl openBulkStore(SQLiteDatabaseHelper helper) {
+        SharedPreferencesImpl sharedPreferences = new SharedPreferencesImpl("bulk", helper,
+                DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+        sharedPreferences.openAsync(DIRECT);
+        return sharedPreferences;
+    }
+
+    public void testColdStartWithAndWithoutPreload() throws Exception {
+        SQLiteDatabaseHelper seedHelper = new SQLiteDatabaseHelper(getContext(), COLD_START_DATABASE_NAME);
+        SharedPreferencesImpl seed = new SharedPreferencesImpl("coldStart", seedHelper,
+                DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+        SharedPreferences.Editor editor = seed.edit();
+        for (int i = 0; i < COLD_START_KEY_COUNT; i++) {
+            editor.putString("key" + i, "value" + i);
+        }
+        assertTrue(editor.commit());
+        seedHelper.close();
+
+        long lazyNanos = readColdStore(false);
+        long preloadNanos = readColdStore(true);
+        Log.i(TAG, "cold start reading " + COLD_START_KEY_COUNT + " keys, lazy open: " + lazyNanos / 1000 + " us");
+        Log.i(TAG, "cold start reading " + COLD_START_KEY_COUNT + " keys, preloaded: " + preloadNanos / 1000 + " us");
+    }
+
+    public void testLargeStringSet() throws Exception {
+        Set<String> tags = new HashSet<>();
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < STRING_SET_SIZE; i++) {
+            tags.add("tag" + i);
+            joined.append("tag").append(i).append(LEGACY_SEPARATOR);
+        }
+        String legacyText = joined.toString();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < STRING_SET_READS; i++) {
+            /*What every getStringSet call did before sets were encoded and cached */
+            Set<String> stringSet = new HashSet<>();
+            stringSet.addAll(Arrays.asList(legacyText.split(LEGACY_SEPARATOR)));
+            assertEquals(STRING_SET_SIZE, stringSet.size());
+        }
+        long splitNanos = System.nanoTime() - start;
+
+        byte[] encoded = ValueCodec.encode(tags);
+        start = System.nanoTime();
+        for (int i = 0; i < STRING_SET_READS; i++) {
+            assertEquals(STRING_SET_SIZE, ((Set<?>) ValueCodec.decode(encoded)).size());
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), STRING_SET_DATABASE_NAME);
+        try {
+            SharedPreferencesImpl sharedPreferences = new SharedPreferencesImpl("stringSet", helper,
+                    DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+            assertTrue(sharedPreferences.edit().putStringSet("tags", tags).commit());
+            start = System.nanoTime();
+            for (int i = 0; i < STRING_SET_READS; i++) {
+                assertEquals(STRING_SET_SIZE, sharedPreferences.getStringSet("tags", null).size());
+            }
+            long cachedNanos = System.nanoTime() - start;
+
+            Log.i(TAG, "string set of " + STRING_SET_SIZE + " read by split: " + splitNanos / STRING_SET_READS + " ns");
+            Log.i(TAG, "string set of " + STRING_SET_SIZE + " read by decode: " + decodeNanos / STRING_SET_READS + " ns");
+            Log.i(TAG, "string set of " + STRING_SET_SIZE + " read from cache: " + cachedNanos / STRING_SET_READS + " ns");
+            Log.i(TAG, "string set of " + STRING_SET_SIZE + " encoded: " + encoded.length + " bytes, joined: "
+                    + legacyText.length() + " chars");
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testReadLatencyDuringWrites() throws Exception {
+        long[] sharedConnection = readDuringWrites(false);
+        long[] readerPool = readDuringWrites(true);
+        Log.i(TAG, "uncached read during commits, shared connection: p50 " + sharedConnection[CONCURRENT_READS / 2] / 1000
+                + " us, p99 " + sharedConnection[CONCURRENT_READS * 99 / 100] / 1000 + " us, max "
+                + sharedConnection[CONCURRENT_READS - 1] / 1000 + " us");
+        Log.i(TAG, "uncached read during commits, WAL and " + READER_CONNECTIONS + " readers: p50 "
+                + readerPool[CONCURRENT_READS / 2] / 1000 + " us, p99 " + readerPool[CONCURRENT_READS * 99 / 100] / 1000
+                + " us, max " + readerPool[CONCURRENT_READS - 1] / 1000 + " us");
+    }
+
+    public void testWriteAmplification() throws Exception {
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), WRITE_AMPLIFICATION_DATABASE_NAME);
+        long sqliteBytes;
+        long logBytes;
+        long logicalBytes;
+        try {
+            SQLiteStorage sqliteStorage = new SQLiteStorage("writeAmplification", helper, null);
+            sqliteStorage.open();
+            long[] written = writeSmallBatches(sqliteStorage);
+            sqliteBytes = written[0];
+            logicalBytes = written[1];
+        } finally {
+            helper.close();
+        }
+        File logFile = new File(getContext().getFilesDir(), WRITE_AMPLIFICATION_LOG_NAME);
+        logFile.delete();
+        /*Compacts on the writing thread so its writes are counted too */
+        LogStorage logStorage = new LogStorage(logFile, DIRECT);
+        try {
+            logStorage.open();
+            logBytes = writeSmallBatches(logStorage)[0];
+        } finally {
+            logStorage.close();
+        }
+        Log.i(TAG, WRITE_AMPLIFICATION_COMMITS + " commits of " + WRITE_AMPLIFICATION_BATCH_SIZE + " keys, "
+                + logicalBytes + " bytes of keys and values");
+        Log.i(TAG, "bytes written, SQLite: " + sqliteBytes + " (" + sqliteBytes / logicalBytes + "x)");
+        Log.i(TAG, "bytes written, log: " + logBytes + " (" + logBytes / logicalBytes + "x)");
+        assertTrue(logBytes < sqliteBytes);
+    }
+
+    public void testColdReadsFromSnapshot() throws Exception {
+        File snapshotFile = new File(getContext().getFilesDir(), SNAPSHOT_FILE_NAME);
+        SQLiteDatabaseHelper seedHelper = new SQLiteDatabaseHelper(getContext(), SNAPSHOT_DATABASE_NAME);
+        try {
+            Map<String, Object> seed = new HashMap<>();
+            for (int i = 0; i < SNAPSHOT_KEY_COUNT; i++) {
+                seed.put("key" + i, "value" + i);
+            }
+            /*Regenerates on this thread once the seed is written */
+            SnapshotStorage storage = new SnapshotStorage(new SQLiteStorage("snapshot", seedHelper, null),
+                    snapshotFile, DIRECT);
+            storage.open();
+            storage.write(seed, false, Durability.FULL);
+            assertTrue(storage.isSnapshotCurrent());
+        } finally {
+            seedHelper.close();
+        }
+        long[] cursor = readCold(false, snapshotFile);
+        long[] snapshot = readCold(true, snapshotFile);
+        Log.i(TAG, "cold reads of " + SNAPSHOT_KEY_COUNT + " keys, cursor: open and first read " + cursor[0] / 1000
+                + " us, p50 " + cursor[SNAPSHOT_READS / 2] / 1000 + " us, p99 " + cursor[SNAPSHOT_READS * 99 / 100] / 1000
+                + " us");
+        Log.i(TAG, "cold reads of " + SNAPSHOT_KEY_COUNT + " keys, snapshot: open and first read " + snapshot[0] / 1000
+                + " us, p50 " + snapshot[SNAPSHOT_READS / 2] / 1000 + " us, p99 "
+                + snapshot[SNAPSHOT_READS * 99 / 100] / 1000 + " us");
+    }
+
+    /**
+     * Opens the seeded store and reads random keys which are not cached yet.
+     *
+     * @return latency of opening plus the first read, followed by the sorted latencies of the
+     * other reads.
+     */
+    private long[] readCold(boolean fromSnapshot, File snapshotFile) {
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), SNAPSHOT_DATABASE_NAME);
+        try {
+            PreferenceStorage storage = new SQLiteStorage("snapshot", helper, null);
+            if (fromSnapshot) {
+                storage = new SnapshotStorage(storage, snapshotFile, DIRECT);
+            }
+            SharedPreferencesImpl sharedPreferences = new SharedPreferencesImpl("snapshot", storage,
+                    DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false);
+            long[] latencies = new long[SNAPSHOT_READS + 1];
+            Random random = new Random(SNAPSHOT_READS);
+            for (int i = 0; i <= SNAPSHOT_READS; i++) {
+                int key = random.nextInt(SNAPSHOT_KEY_COUNT);
+                long start = System.nanoTime();
+                assertEquals("value" + key, sharedPreferences.getString("key" + key, null));
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies, 1, latencies.length);
+            return latencies;
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Seeds the storage, then overwrites random keys in small fully durable batches.
+     *
+     * @return bytes the calling thread wrote to files and bytes of the keys and values it committed.
+     */
+    private long[] writeSmallBatches(PreferenceStorage storage) throws IOException {
+        Map<String, Object> seed = new HashMap<>();
+        for (int i = 0; i < WRITE_AMPLIFICATION_KEY_COUNT; i++) {
+            seed.put("key" + i, "value" + i);
+        }
+        storage.write(seed, false, Durability.FULL);
+        Random random = new Random(WRITE_AMPLIFICATION_COMMITS);
+        long logicalBytes = 0;
+        long start = threadBytesWritten();
+        for (int commit = 0; commit < WRITE_AMPLIFICATION_COMMITS; commit++) {
+            Map<String, Object> changes = new HashMap<>();
+            for (int i = 0; i < WRITE_AMPLIFICATION_BATCH_SIZE; i++) {
+                String key = "key" + random.nextInt(WRITE_AMPLIFICATION_KEY_COUNT);
+                String value = "value" + commit;
+                changes.put(key, value);
+                logicalBytes += key.length() + value.length();
+            }
+            storage.write(changes, false, Durability.FULL);
+        }
+        return new long[]{threadBytesWritten() - start, logicalBytes};
+    }
+
+    /**
+     * @return bytes the calling thread passed to write calls, as counted by the kernel.
+     */
+    private static long threadBytesWritten() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader("/proc/self/task/" + Process.myTid() + "/io"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("wchar:")) {
+                    return Long.parseLong(line.substring("wchar:".length()).trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        throw new IOException("No wchar in /proc/self/task/" + Process.myTid() + "/io");
+    }
+
+    /**
+     * Reads keys from the table while another thread commits large batches to the same table.
+     *
+     * @return sorted latencies of the reads.
+     */
+    private long[] readDuringWrites(boolean concurrentReads) throws Exception {
+        getContext().deleteDatabase(CONCURRENT_READ_DATABASE_NAME);
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), CONCURRENT_READ_DATABASE_NAME);
+        helper.setWriteAheadLoggingOnOpen(concurrentReads);
+        ReaderPool readerPool = concurrentReads ? new ReaderPool(helper, READER_CONNECTIONS) : null;
+        final SharedPreferencesImpl sharedPreferences = new SharedPreferencesImpl("concurrentRead", helper,
+                DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), false, readerPool);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        for (int i = 0; i < CONCURRENT_READ_KEY_COUNT; i++) {
+            editor.putString("key" + i, "value" + i);
+        }
+        assertTrue(editor.commit());
+
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int round = 0; reading.get(); round++) {
+                    SharedPreferences.Editor editor = sharedPreferences.edit();
+                    for (int i = 0; i < CONCURRENT_READ_KEY_COUNT; i++) {
+                        editor.putString("key" + i, "value" + round);
+                    }
+                    editor.commit();
+                }
+            }
+        });
+        writer.start();
+        long[] latencies = new long[CONCURRENT_READS];
+        try {
+            Random random = new Random(CONCURRENT_READS);
+            for (int i = 0; i < CONCURRENT_READS; i++) {
+                String key = "key" + random.nextInt(CONCURRENT_READ_KEY_COUNT);
+                long start = System.nanoTime();
+                /*Bypasses the cache, every read goes to the table */
+                assertNotNull(sharedPreferences.getValueFromDB(key));
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            reading.set(false);
+            writer.join();
+            if (readerPool != null) {
+                readerPool.close();
+            }
+            helper.close();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * @return time the calling thread spent opening the store and reading every key.
+     */
+    private long readColdStore(boolean preload) throws InterruptedException {
+        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(getContext(), COLD_START_DATABASE_NAME);
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            long start = System.nanoTime();
+            SharedPreferencesImpl sharedPreferences = new SharedPreferencesImpl("coldStart", helper,
+                    DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY), preload);
+            if (preload) {
+                sharedPreferences.openAsync(loader);
+            }
+            long elapsed = System.nanoTime() - start;
+            Thread.sleep(STARTUP_WORK_MILLIS);
+            start = System.nanoTime();
+            for (int i = 0; i < COLD_START_KEY_COUNT; i++) {
+                assertEquals("value" + i, sharedPreferences.getString("key" + i, null));
+            }
+            return elapsed + System.nanoTime() - start;
+        } finally {
+            loader.shutdown();
+            helper.close();
+        }
+    }
+
+    /**
+     * The commit path used before the upsert statement: one lookup per key followed by an
+     * insert or update built from fresh {@link ContentValues}.
+     */
+    private void commitWithLookup(String tableName, int round) {
+        mSqLiteDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                String key = "key" + i;
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(PreferencesContent.COLUMN_NAME_KEY, key);
+                contentValues.put(PreferencesContent.COLUMN_NAME_VALUE, "value" + round);
+                Cursor cursor = mSqLiteDatabase.query(tableName, PreferencesContent.PREFERENCES_PROJECTION,
+                        PreferencesContent.SELECTION_VAI_KEY, new String[]{key}, null, null, null);
+                boolean exists;
+                try {
+                    exists = cursor.moveToNext();
+                } finally {
+                    cursor.close();
+                }
+                if (exists) {
+                    mSqLiteDatabase.update(tableName, contentValues, PreferencesContent.SELECTION_VAI_KEY,
+                            new String[]{key});
+                } else {
+                    mSqLiteDatabase.insert(tableName, null, contentValues);
+                }
+            }
+            mSqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            mSqLiteDatabase.endTransaction();
+        }
+    }
+
+    private void commitWithUpsert(PreferencesStatements statements, int round) {
+        mSqLiteDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                statements.upsert("key" + i, ValueCodec.encode("value" + round));
+            }
+            mSqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            mSqLiteDatabase.endTransaction();
+        }
+    }
+
+    private int countRows(String tableName) {
+        Cursor cursor = mSqLiteDatabase.rawQuery("SELECT COUNT(*) FROM " + tableName, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
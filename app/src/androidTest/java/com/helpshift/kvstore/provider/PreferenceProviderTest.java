@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.provider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.IsolatedContext;
+import android.test.mock.MockContentResolver;
+
+import com.helpshift.kvstore.DefaultWriteScheduler;
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+import com.helpshift.kvstore.SharedPreferencesImpl;
+import com.helpshift.kvstore.WriteScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two {@link ProviderStorage} instances against one {@link PreferenceProvider} stand for two
+ * processes sharing a store.
+ */
+public class PreferenceProviderTest extends AndroidTestCase {
+
+    private static final String AUTHORITY = "com.helpshift.kvstore.test.preferences";
+
+    private static final String PREFERENCE_NAME = "providerTest";
+
+    private final WriteScheduler mWriteScheduler = DefaultWriteScheduler.threadPerStore(
+            DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY);
+
+    private Context mProcessContext;
+
+    private ProviderStorage mFirstStorage;
+
+    private ProviderStorage mSecondStorage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PreferenceProvider provider = new PreferenceProvider();
+        provider.attachInfo(getContext(), null);
+        MockContentResolver contentResolver = new MockContentResolver();
+        contentResolver.addProvider(AUTHORITY, provider);
+        mProcessContext = new ContextWithContentResolver(contentResolver, getContext());
+        mFirstStorage = new ProviderStorage(mProcessContext, AUTHORITY, PREFERENCE_NAME);
+        mSecondStorage = new ProviderStorage(mProcessContext, AUTHORITY, PREFERENCE_NAME);
+        mFirstStorage.open();
+        mSecondStorage.open();
+        mFirstStorage.write(Collections.<String, Object>emptyMap(), true, Durability.FULL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFirstStorage.write(Collections.<String, Object>emptyMap(), true, Durability.FULL);
+        ProviderStorage.generationFile(getContext(), PREFERENCE_NAME).delete();
+        super.tearDown();
+    }
+
+    public void testWriteIsOneBatchAndOneGeneration() throws Exception {
+        int version = mFirstStorage.dataVersion();
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("string", "value");
+        changes.put("int", 7);
+        changes.put("set", Collections.singleton("element"));
+        mFirstStorage.write(changes, false, Durability.WAL_NORMAL);
+        assertEquals(version + 1, mFirstStorage.lastWrittenVersion());
+        assertEquals(version + 1, mFirstStorage.dataVersion());
+        assertEquals(version + 1, mSecondStorage.dataVersion());
+        assertEquals(changes, mSecondStorage.getMany(changes.keySet()));
+
+        Map<String, Object> removal = new HashMap<>();
+        removal.put("int", null);
+        removal.put("other", 1L);
+        mSecondStorage.write(removal, false, Durability.FULL);
+        assertEquals(version + 2, mFirstStorage.dataVersion());
+        assertNull(mFirstStorage.get("int"));
+        assertEquals(new HashSet<>(Arrays.asList("other", "set", "string")), new HashSet<>(mFirstStorage.keys()));
+
+        mFirstStorage.write(Collections.<String, Object>singletonMap("last", true), true, Durability.FULL);
+        assertEquals(Collections.singletonList("last"), mSecondStorage.keys());
+    }
+
+    public void testScanReadsPages() throws Exception {
+        Map<String, Object> changes = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            changes.put("key" + i, i);
+        }
+        mFirstStorage.write(changes, false, Durability.FULL);
+        final List<String> visited = new ArrayList<>();
+        mSecondStorage.scan("key1", "key4", 2, new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                assertEquals(Integer.parseInt(key.substring(3)), value);
+                visited.add(key);
+                return true;
+            }
+        });
+        assertEquals(Arrays.asList("key1", "key2", "key3"), visited);
+    }
+
+    public void testCachedValuesFollowWritesOfTheOtherInstance() throws Exception {
+        SharedPreferencesImpl first = new SharedPreferencesImpl(PREFERENCE_NAME,
+                new ProviderStorage(mProcessContext, AUTHORITY, PREFERENCE_NAME), mWriteScheduler, false);
+        SharedPreferencesImpl second = new SharedPreferencesImpl(PREFERENCE_NAME,
+                new ProviderStorage(mProcessContext, AUTHORITY, PREFERENCE_NAME), mWriteScheduler, false);
+        assertTrue(first.edit().putString("key", "first").putInt("count", 1).commit());
+        assertEquals("first", second.getString("key", null));
+        assertEquals(1, second.getInt("count", 0));
+
+        /*Cached by the second instance, the generation bump drops them */
+        assertTrue(first.edit().putString("key", "changed").remove("count").commit());
+        assertEquals("changed", second.getString("key", null));
+        assertFalse(second.contains("count"));
+
+        /*Its own write keeps the cache of the writer valid, the other one reads it again */
+        assertTrue(second.edit().putString("own", "value").commit());
+        assertEquals("value", second.getString("own", null));
+        assertEquals("value", first.getString("own", null));
+    }
+
+    public void testFullyLoadedStoreIsReloadedAfterOtherInstanceWrites() throws Exception {
+        SharedPreferencesImpl first = new SharedPreferencesImpl(PREFERENCE_NAME,
+                new ProviderStorage(mProcessContext, AUTHORITY, PREFERENCE_NAME), mWriteScheduler, false);
+        SharedPreferencesImpl second = new SharedPreferencesImpl(PREFERENCE_NAME,
+                new ProviderStorage(mProcessContext, AUTHORITY, PREFERENCE_NAME), mWriteScheduler, false);
+        assertTrue(first.edit().putString("a", "1").putString("b", "1").commit());
+        second.loadFully();
+        assertTrue(second.isFullyLoaded());
+
+        assertTrue(first.edit().putString("b", "2").putString("c", "2").commit());
+        Map<String, ?> all = second.getAll();
+        assertFalse(second.isFullyLoaded());
+        assertEquals(3, all.size());
+        assertEquals("2", all.get("b"));
+        assertEquals("2", all.get("c"));
+    }
+
+    private static class ContextWithContentResolver extends IsolatedContext {
+
+        ContextWithContentResolver(ContentResolver resolver, Context targetContext) {
+            super(resolver, targetContext);
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+    }
+}
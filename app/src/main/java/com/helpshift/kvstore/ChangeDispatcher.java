@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers the keys of written batches to the listeners of a store.
+ * <p>
+ * Subscriptions live in a copy-on-write list, so dispatching never locks out registration and
+ * never sees a half updated registry. Each subscription collects the matching keys of batches
+ * written while its previous delivery is still queued on its executor and hands them over as one
+ * {@link ChangeSet}, so a slow executor sees fewer, larger change sets rather than a growing
+ * queue. Deliveries to one subscription never overlap, even on a multi-threaded executor.
+ */
+class ChangeDispatcher {
+
+    private final SharedPreferences mSharedPreferences;
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    private final StoreMetrics mMetrics;
+
+    /**
+     * @param metrics records how long each delivery to a listener takes.
+     */
+    ChangeDispatcher(SharedPreferences sharedPreferences, StoreMetrics metrics) {
+        mSharedPreferences = sharedPreferences;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Registering a listener again replaces its earlier filter and executor.
+     */
+    void register(ChangeListener listener, ChangeFilter filter, Executor executor) {
+        add(new ListenerSubscription(listener, filter, executor));
+    }
+
+    void unregister(ChangeListener listener) {
+        remove(listener);
+    }
+
+    /**
+     * Adds a listener of the {@link SharedPreferences} interface. It is only weakly referenced and
+     * is called once per modified key on the writer thread.
+     */
+    void registerLegacy(OnSharedPreferenceChangeListener listener) {
+        add(new LegacySubscription(listener));
+    }
+
+    void unregisterLegacy(OnSharedPreferenceChangeListener listener) {
+        remove(listener);
+    }
+
+    /**
+     * @param keys    keys modified by the written batch.
+     * @param cleared whether the batch cleared the store first.
+     */
+    void dispatch(Set<String> keys, boolean cleared) {
+        for (Subscription subscription : mSubscriptions) {
+            if (!subscription.offer(keys, cleared)) {
+                /*Legacy listener which was garbage collected */
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    private synchronized void add(Subscription subscription) {
+        remove(subscription.listener());
+        mSubscriptions.add(subscription);
+    }
+
+    private synchronized void remove(Object listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.listener() == listener) {
+                subscription.mCancelled = true;
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    private abstract class Subscription implements Runnable {
+
+        private final ChangeFilter mFilter;
+
+        private final Executor mExecutor;
+
+        /*Set once unregistered, queued deliveries are dropped */
+        private volatile boolean mCancelled;
+
+        /*Guarded by this, null while nothing waits for delivery */
+        private Set<String> mPendingKeys;
+
+        private boolean mPendingCleared;
+
+        /*Guarded by this, whether run() is queued or running */
+        private boolean mScheduled;
+
+        Subscription(ChangeFilter filter, Executor executor) {
+            mFilter = filter;
+            mExecutor = executor;
+        }
+
+        /**
+         * @return the listener or {@code null} if it was garbage collected.
+         */
+        abstract Object listener();
+
+        abstract void deliver(ChangeSet changeSet);
+
+        /**
+         * @return false if the listener is gone.
+         */
+        boolean offer(Set<String> keys, boolean cleared) {
+            if (listener() == null) {
+                return false;
+            }
+            boolean schedule;
+            synchronized (this) {
+                for (String key : keys) {
+                    if (mFilter.matches(key)) {
+                        pendingKeys().add(key);
+                    }
+                }
+                if (cleared) {
+                    pendingKeys();
+                    mPendingCleared = true;
+                }
+                schedule = mPendingKeys != null && !mScheduled;
+                if (schedule) {
+                    mScheduled = true;
+                }
+            }
+            if (schedule) {
+                mExecutor.execute(this);
+            }
+            return true;
+        }
+
+        private Set<String> pendingKeys() {
+            if (mPendingKeys == null) {
+                mPendingKeys = new LinkedHashSet<>();
+            }
+            return mPendingKeys;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ChangeSet changeSet;
+                synchronized (this) {
+                    if (mPendingKeys == null || mCancelled) {
+                        mPendingKeys = null;
+                        mScheduled = false;
+                        return;
+                    }
+                    changeSet = new ChangeSet(Collections.unmodifiableSet(mPendingKeys), mPendingCleared);
+                    mPendingKeys = null;
+                    mPendingCleared = false;
+                }
+                long start = System.nanoTime();
+                try {
+                    deliver(changeSet);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        mScheduled = false;
+                    }
+                    throw e;
+                }
+                mMetrics.recordDispatch(listener(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    private class ListenerSubscription extends Subscription {
+
+        private final ChangeListener mListener;
+
+        ListenerSubscription(ChangeListener listener, ChangeFilter filter, Executor executor) {
+            super(filter, executor);
+            mListener = listener;
+        }
+
+        @Override
+        Object listener() {
+            return mListener;
+        }
+
+        @Override
+        void deliver(ChangeSet changeSet) {
+            mListener.onPreferencesChanged(mSharedPreferences, changeSet);
+        }
+    }
+
+    private class LegacySubscription extends Subscription {
+
+        private final WeakReference<OnSharedPreferenceChangeListener> mListener;
+
+        LegacySubscription(OnSharedPreferenceChangeListener listener) {
+            super(ChangeFilter.allKeys(), ChangeExecutors.writerThread());
+            mListener = new WeakReference<>(listener);
+        }
+
+        @Override
+        Object listener() {
+            return mListener.get();
+        }
+
+        @Override
+        void deliver(ChangeSet changeSet) {
+            OnSharedPreferenceChangeListener listener = mListener.get();
+            if (listener != null) {
+                for (String key : changeSet.getKeys()) {
+                    listener.onSharedPreferenceChanged(mSharedPreferences, key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helpshift.kvstore;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Threads a {@link ChangeListener} can be called on. Any other {@link Executor} works as well.
+ */
+public final class ChangeExecutors {
+
+    private static final Executor WRITER_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ChangeExecutors() {
+    }
+
+    /**
+     * Calls listeners on the main thread, e.g. to update views.
+     */
+    public static Executor mainThread() {
+        return MainThread.EXECUTOR;
+    }
+
+    /**
+     * Calls listeners on the thread which wrote the batch, right after it was written. Listeners
+     * must return quickly as the following batches wait for them.
+     */
+    public static Executor writerThread() {
+        return WRITER_THREAD;
+    }
+
+    /*Not created until a listener asks for the main thread */
+    private static final class MainThread {
+
+        static final Executor EXECUTOR = new Executor() {
+
+            private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable command) {
+                mHandler.post(command);
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helpshift.kvstore;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Selects the keys a {@link ChangeListener} is told about.
+ */
+public abstract class ChangeFilter {
+
+    /**
+     * @return whether changes of {@code key} are delivered.
+     */
+    public abstract boolean matches(String key);
+
+    /**
+     * Every key of the store.
+     */
+    public static ChangeFilter allKeys() {
+        return new ChangeFilter() {
+            @Override
+            public boolean matches(String key) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Only the given keys.
+     */
+    public static ChangeFilter keys(String... keys) {
+        final Set<String> keySet = new HashSet<>(Arrays.asList(keys));
+        return new ChangeFilter() {
+            @Override
+            public boolean matches(String key) {
+                return keySet.contains(key);
+            }
+        };
+    }
+
+    /**
+     * Keys starting with any of the given prefixes.
+     */
+    public static ChangeFilter prefixes(String... prefixes) {
+        final String[] prefixArray = prefixes.clone();
+        return new ChangeFilter() {
+            @Override
+            public boolean matches(String key) {
+                for (String prefix : prefixArray) {
+                    if (key.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+}
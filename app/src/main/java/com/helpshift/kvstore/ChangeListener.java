@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helpshift.kvstore;
+
+import android.content.SharedPreferences;
+
+/**
+ * Receives the changes of a store, registered with
+ * {@link SharedPreferencesImpl#registerChangeListener(ChangeListener, ChangeFilter, java.util.concurrent.Executor)}.
+ */
+public interface ChangeListener {
+
+    /**
+     * Called once per written batch of edits, or once for several batches if earlier ones were
+     * still waiting for the listener's executor.
+     *
+     * @param changeSet the changed keys which match the listener's {@link ChangeFilter}.
+     */
+    void onPreferencesChanged(SharedPreferences sharedPreferences, ChangeSet changeSet);
+}
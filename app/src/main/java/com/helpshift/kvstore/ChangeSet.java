@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helpshift.kvstore;
+
+import java.util.Set;
+
+/**
+ * Keys changed by one or more written batches of edits.
+ */
+public final class ChangeSet {
+
+    private final Set<String> mKeys;
+
+    private final boolean mCleared;
+
+    ChangeSet(Set<String> keys, boolean cleared) {
+        mKeys = keys;
+        mCleared = cleared;
+    }
+
+    /**
+     * @return the modified keys in the order they were first modified, unmodifiable.
+     */
+    public Set<String> getKeys() {
+        return mKeys;
+    }
+
+    /**
+     * @return whether the store was cleared, which may have removed keys missing from
+     * {@link #getKeys()}.
+     */
+    public boolean isCleared() {
+        return mCleared;
+    }
+
+    /**
+     * @return whether the value of {@code key} may have changed.
+     */
+    public boolean affects(String key) {
+        return mCleared || mKeys.contains(key);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeSet{keys=" + mKeys + ", cleared=" + mCleared + "}";
+    }
+}
@@ -14,14 +14,44 @@
 package com.helpshift.kvstore;
 
 import android.app.Application;
+import android.content.Context;
 
+import com.facebook.stetho.DumperPluginsProvider;
 import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+import com.helpshift.kvstore.database.PreferencesContent;
+
+import java.util.Collections;
 
 public class CustomApplication extends Application {
 
     @Override
     public void onCreate() {
         super.onCreate();
-        Stetho.initializeWithDefaults(this);
+        final Context context = this;
+        Stetho.initialize(Stetho.newInitializerBuilder(this)
+                .enableDumpapp(new DumperPluginsProvider() {
+                    @Override
+                    public Iterable<DumperPlugin> get() {
+                        return new Stetho.DefaultDumperPluginsBuilder(context)
+                                .provide(new KVStoreDumperPlugin(SharedPreferencesContext.getInstance(context)))
+                                .finish();
+                    }
+                })
+                .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(this))
+                .build());
+        SharedPreferencesContext.getInstance(this).preload(Collections.singletonList(PreferencesContent.TABLE_NAME));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        SharedPreferencesContext.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        SharedPreferencesContext.getInstance(this).trimMemory(TRIM_MEMORY_COMPLETE);
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link WriteScheduler} which gives every store its own bounded priority queue. Queues are
+ * served by writer threads owned by the scheduler, either one per busy store or a fixed pool
+ * shared round robin by all stores, so persisting preferences never waits behind unrelated
+ * {@link android.os.AsyncTask}s.
+ */
+public class DefaultWriteScheduler implements WriteScheduler {
+
+    private static final String TAG = "DefaultWriteScheduler";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final String THREAD_NAME = "KVStore-writer";
+
+    private final ThreadPoolExecutor mWriters;
+
+    private final int mQueueCapacity;
+
+    private final Map<String, StoreQueue> mQueues = new ConcurrentHashMap<>();
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final Object mDrainLock = new Object();
+
+    /*Tasks queued or running over all stores, guarded by mDrainLock */
+    private int mOutstanding;
+
+    /**
+     * Creates a scheduler which runs every store on its own writer thread. Threads are started
+     * when a store has work and exit after being idle for a while.
+     */
+    public static DefaultWriteScheduler threadPerStore(int queueCapacity) {
+        return new DefaultWriteScheduler(new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new BackgroundThreadFactory(THREAD_NAME)), queueCapacity);
+    }
+
+    /**
+     * Creates a scheduler which serves all stores from {@code writerThreads} threads.
+     */
+    public static DefaultWriteScheduler sharedPool(int writerThreads, int queueCapacity) {
+        ThreadPoolExecutor writers = new ThreadPoolExecutor(writerThreads, writerThreads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory(THREAD_NAME));
+        writers.allowCoreThreadTimeOut(true);
+        return new DefaultWriteScheduler(writers, queueCapacity);
+    }
+
+    private DefaultWriteScheduler(ThreadPoolExecutor writers, int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive " + queueCapacity);
+        }
+        mWriters = writers;
+        mQueueCapacity = queueCapacity;
+    }
+
+    @Override
+    public void execute(String preferenceName, int priority, Runnable task) {
+        getQueue(preferenceName).add(new WriteTask(priority, mSequence.getAndIncrement(), task));
+    }
+
+    @Override
+    public int getQueueDepth(String preferenceName) {
+        StoreQueue queue = mQueues.get(preferenceName);
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (mDrainLock) {
+            while (mOutstanding > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mDrainLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private StoreQueue getQueue(String preferenceName) {
+        StoreQueue queue = mQueues.get(preferenceName);
+        if (queue == null) {
+            synchronized (mQueues) {
+                queue = mQueues.get(preferenceName);
+                if (queue == null) {
+                    queue = new StoreQueue();
+                    mQueues.put(preferenceName, queue);
+                }
+            }
+        }
+        return queue;
+    }
+
+    private void onTaskQueued() {
+        synchronized (mDrainLock) {
+            mOutstanding++;
+        }
+    }
+
+    private void onTaskDone() {
+        synchronized (mDrainLock) {
+            mOutstanding--;
+            if (mOutstanding == 0) {
+                mDrainLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Pending tasks of one store. At most one writer runs a store at any time, it runs a single
+     * task and hands the store back to the pool so other stores get their turn.
+     */
+    private class StoreQueue implements Runnable {
+
+        private final PriorityQueue<WriteTask> mTasks = new PriorityQueue<>();
+
+        private final Semaphore mCapacity = new Semaphore(mQueueCapacity);
+
+        private boolean mScheduled;
+
+        void add(WriteTask task) {
+            mCapacity.acquireUninterruptibly();
+            onTaskQueued();
+            synchronized (this) {
+                mTasks.add(task);
+                if (mScheduled) {
+                    return;
+                }
+                mScheduled = true;
+            }
+            mWriters.execute(this);
+        }
+
+        synchronized int size() {
+            return mTasks.size();
+        }
+
+        @Override
+        public void run() {
+            WriteTask task;
+            synchronized (this) {
+                task = mTasks.poll();
+            }
+            mCapacity.release();
+            try {
+                task.mRunnable.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Write task failed", e);
+            } finally {
+                onTaskDone();
+            }
+            synchronized (this) {
+                if (mTasks.isEmpty()) {
+                    mScheduled = false;
+                    return;
+                }
+            }
+            mWriters.execute(this);
+        }
+    }
+
+    private static class WriteTask implements Comparable<WriteTask> {
+
+        private final int mPriority;
+
+        private final long mSequence;
+
+        private final Runnable mRunnable;
+
+        WriteTask(int priority, long sequence, Runnable runnable) {
+            mPriority = priority;
+            mSequence = sequence;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public int compareTo(WriteTask another) {
+            if (mPriority != another.mPriority) {
+                return mPriority > another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+}
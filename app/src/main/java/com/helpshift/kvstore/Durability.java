@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+/**
+ * How hard a preference store works to keep committed edits across crashes and power loss.
+ */
+public enum Durability {
+
+    /**
+     * Every transaction is synced to disk before {@link android.content.SharedPreferences.Editor#commit()}
+     * returns.
+     */
+    FULL,
+
+    /**
+     * Write-ahead logging with NORMAL synchronous. A commit survives an app crash, the most recent
+     * commits may be lost on power loss. Write-ahead logging is switched on for the whole database
+     * file the store lives in.
+     */
+    WAL_NORMAL,
+
+    /**
+     * Edits are kept in memory and written every {@link #MEMORY_FLUSH_INTERVAL_MILLIS} without
+     * syncing. {@link android.content.SharedPreferences.Editor#commit()} returns without waiting
+     * for the database.
+     */
+    MEMORY;
+
+    public static final long MEMORY_FLUSH_INTERVAL_MILLIS = 5000;
+}
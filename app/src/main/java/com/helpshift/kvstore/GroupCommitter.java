@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the edits of many {@link SharedPreferencesImpl.EditorImpl#apply()} calls into a single
+ * {@link Batch} which is written in one transaction.
+ * <p>
+ * A batch is opened by the first apply after a flush and is flushed once the commit window
+ * elapses or it holds {@code maxBatchSize} keys, whichever comes first. Edits are merged in the
+ * order they were applied, so a later apply always wins over an earlier one for the same key.
+ * Flushing itself is left to the owner through a {@link FlushTrigger}, which must write batches
+ * one at a time in the order {@link #drain()} hands them out. Commit windows are timed on a
+ * background thread of their own, so a busy main thread doesn't hold back writes.
+ */
+class GroupCommitter {
+
+    static final long DEFAULT_WINDOW_MILLIS = 50;
+
+    static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
+    /*Returned by unwrittenValue() for keys which no unwritten apply touched */
+    static final Object UNCHANGED = new Object();
+
+    private static final long TIMER_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ScheduledThreadPoolExecutor sWindowTimer = newWindowTimer();
+
+    private final FlushTrigger mFlushTrigger;
+
+    private final Runnable mWindowElapsed = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (GroupCommitter.this) {
+                if (mPending != null) {
+                    requestFlush(false);
+                }
+            }
+        }
+    };
+
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+
+    private int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /*Batch collecting the edits of new apply() calls */
+    private Batch mPending;
+
+    /*Batch handed out by drain() which is not written yet */
+    private Batch mInFlight;
+
+    private boolean mFlushRequested;
+
+    /*Elapses the window of mPending, null if its window isn't timed */
+    private ScheduledFuture<?> mWindowTimer;
+
+    private long mWrittenBatches;
+
+    GroupCommitter(FlushTrigger flushTrigger) {
+        mFlushTrigger = flushTrigger;
+    }
+
+    /**
+     * @param windowMillis how long a batch collects edits before it is flushed, 0 flushes every
+     *                     apply right away.
+     * @param maxBatchSize number of keys after which a batch is flushed before its window elapsed.
+     */
+    synchronized void setPolicy(long windowMillis, int maxBatchSize) {
+        if (windowMillis < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid group commit policy " + windowMillis + "ms, "
+                    + maxBatchSize + " keys");
+        }
+        mWindowMillis = windowMillis;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Merges the edits of one editor into the pending batch.
+     *
+     * @param changes modified keys, a {@code null} value removes the key.
+     * @param clear   whether the editor cleared the preferences before applying {@code changes}.
+     * @return the batch the edits were merged into.
+     */
+    synchronized Batch enqueue(Map<String, Object> changes, boolean clear) {
+        if (mPending == null) {
+            mPending = new Batch();
+            if (mWindowMillis > 0) {
+                mWindowTimer = sWindowTimer.schedule(mWindowElapsed, mWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        mPending.merge(changes, clear);
+        Batch batch = mPending;
+        if (mWindowMillis == 0 || mPending.size() >= mMaxBatchSize) {
+            requestFlush(false);
+        }
+        return batch;
+    }
+
+    /**
+     * Requests a flush of the pending batch without waiting for its window to elapse.
+     *
+     * @param urgent whether a caller is blocked until the batch is written.
+     */
+    synchronized void flush(boolean urgent) {
+        if (mPending != null) {
+            requestFlush(urgent);
+        }
+    }
+
+    /**
+     * Hands out the pending batch for writing. Must be followed by {@link #onWritten(boolean)} once the
+     * batch is persisted.
+     *
+     * @return the batch to write or {@code null} if an earlier flush already wrote everything.
+     */
+    synchronized Batch drain() {
+        if (mWindowTimer != null) {
+            mWindowTimer.cancel(false);
+            mWindowTimer = null;
+        }
+        mFlushRequested = false;
+        mInFlight = mPending;
+        mPending = null;
+        return mInFlight;
+    }
+
+    /**
+     * Releases the callers waiting for the batch handed out by {@link #drain()}.
+     */
+    synchronized void onWritten(boolean success) {
+        mInFlight.onWritten(success);
+        mInFlight = null;
+        mWrittenBatches++;
+    }
+
+    /**
+     * @return number of batches whose write finished, a value read from the database before it
+     * changed may be stale.
+     */
+    synchronized long writtenBatches() {
+        return mWrittenBatches;
+    }
+
+    /**
+     * @return the value the latest unwritten apply gave {@code key}, {@code null} if that apply
+     * removed or cleared it, or {@link #UNCHANGED} if the database holds the current value.
+     */
+    synchronized Object unwrittenValue(String key) {
+        Object value = valueIn(mPending, key);
+        return value != UNCHANGED ? value : valueIn(mInFlight, key);
+    }
+
+    /**
+     * @return a copy of the edits which are applied but not written yet, merged in apply order.
+     */
+    synchronized Batch unwritten() {
+        Batch unwritten = new Batch();
+        if (mInFlight != null) {
+            unwritten.merge(mInFlight.mChanges, mInFlight.mClear);
+        }
+        if (mPending != null) {
+            unwritten.merge(mPending.mChanges, mPending.mClear);
+        }
+        return unwritten;
+    }
+
+    private static ScheduledThreadPoolExecutor newWindowTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new BackgroundThreadFactory("KVStore-commit-window"));
+        /*Only runs while batches are open */
+        timer.setKeepAliveTime(TIMER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        return timer;
+    }
+
+    private static Object valueIn(Batch batch, String key) {
+        if (batch == null) {
+            return UNCHANGED;
+        }
+        if (batch.mChanges.containsKey(key)) {
+            return batch.mChanges.get(key);
+        }
+        return batch.mClear ? null : UNCHANGED;
+    }
+
+    private void requestFlush(boolean urgent) {
+        if (!mFlushRequested) {
+            mFlushRequested = true;
+            mFlushTrigger.onFlushRequested(urgent);
+        }
+    }
+
+    interface FlushTrigger {
+
+        /**
+         * Called at most once per batch, the owner must schedule a write which starts with
+         * {@link #drain()}.
+         */
+        void onFlushRequested(boolean urgent);
+    }
+
+    static class Batch {
+
+        private final Map<String, Object> mChanges = new LinkedHashMap<>();
+
+        private boolean mClear;
+
+        private final CountDownLatch mWritten = new CountDownLatch(1);
+
+        private volatile boolean mSuccess;
+
+        private void merge(Map<String, Object> changes, boolean clear) {
+            if (clear) {
+                mChanges.clear();
+                mClear = true;
+            }
+            mChanges.putAll(changes);
+        }
+
+        int size() {
+            return mChanges.size();
+        }
+
+        boolean isClear() {
+            return mClear;
+        }
+
+        Map<String, Object> getChanges() {
+            return mChanges;
+        }
+
+        private void onWritten(boolean success) {
+            mSuccess = success;
+            mWritten.countDown();
+        }
+
+        /**
+         * Blocks until the batch is written.
+         *
+         * @return true if the batch was persisted.
+         */
+        boolean await() {
+            try {
+                mWritten.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return mSuccess;
+        }
+    }
+}
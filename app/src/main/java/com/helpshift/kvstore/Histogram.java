@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts recorded values in buckets whose width grows with the value, like an HDR histogram.
+ * Values below {@link #SUB_BUCKETS} have a bucket each, above that every power of two is split
+ * into {@link #SUB_BUCKETS} buckets, so percentiles are within about 3% of the recorded values
+ * over the whole range. Recording takes no lock and allocates nothing.
+ */
+class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /*Larger values are recorded as this one, over an hour in nanoseconds */
+    static final long MAX_VALUE = (1L << 42) - 1;
+
+    static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter mSum = new StripedCounter();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    void record(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+        mCounts.incrementAndGet(bucketOf(value));
+        mSum.add(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            /*Retry, another thread raised the maximum meanwhile */
+        }
+    }
+
+    MetricsSnapshot.Distribution snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new MetricsSnapshot.Distribution(counts, mSum.sum(), mMax.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        /*value >>> shift keeps the leading bit and the SUB_BUCKET_BITS below it */
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the largest value counted in {@code bucket}.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approximates the most read keys of a store with the Space-Saving algorithm over a sample of its
+ * reads. At most {@link #CAPACITY} keys are counted, a sampled key which isn't counted replaces
+ * the one with the lowest count and starts from that count. Every key making up more than
+ * 1/CAPACITY of the reads is among the counted ones, with its count overestimated by at most
+ * the count it started from.
+ */
+class HotKeys {
+
+    /*One in SAMPLE_RATE reads is counted, a power of two */
+    static final int SAMPLE_RATE = 16;
+
+    static final int CAPACITY = 64;
+
+    /*Seed of the xorshift state of each reading thread, sampling at random so reads repeating
+    with a period don't always sample the same keys */
+    private final int mSeed;
+
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+
+    /*Kept per thread, so reads of different threads don't write to the same memory */
+    private final ThreadLocal<int[]> mRandom = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[]{mix(mSeed + mThreadCount.getAndIncrement()) | 1};
+        }
+    };
+
+    /*Guarded by this, count of each key and the count it started from */
+    private final Map<String, long[]> mCounts = new HashMap<>();
+
+    private final long mStartNanos = System.nanoTime();
+
+    HotKeys() {
+        this((int) System.nanoTime());
+    }
+
+    /**
+     * @param seed picks the sampled reads, the same seed samples the same reads of a thread.
+     */
+    HotKeys(int seed) {
+        mSeed = seed;
+    }
+
+    void onRead(String key) {
+        int[] state = mRandom.get();
+        int random = state[0];
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        state[0] = random;
+        if ((random & (SAMPLE_RATE - 1)) != 0) {
+            return;
+        }
+        synchronized (this) {
+            long[] count = mCounts.get(key);
+            if (count != null) {
+                count[0]++;
+                return;
+            }
+            if (mCounts.size() < CAPACITY) {
+                mCounts.put(key, new long[]{1, 0});
+                return;
+            }
+            Map.Entry<String, long[]> lowest = null;
+            for (Map.Entry<String, long[]> entry : mCounts.entrySet()) {
+                if (lowest == null || entry.getValue()[0] < lowest.getValue()[0]) {
+                    lowest = entry;
+                }
+            }
+            long[] replaced = mCounts.remove(lowest.getKey());
+            mCounts.put(key, new long[]{replaced[0] + 1, replaced[0]});
+        }
+    }
+
+    /**
+     * @return up to {@code limit} keys, most read first.
+     */
+    List<MetricsSnapshot.HotKey> top(int limit) {
+        double seconds = Math.max(System.nanoTime() - mStartNanos, 1) / 1e9;
+        List<MetricsSnapshot.HotKey> hotKeys = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, long[]> entry : mCounts.entrySet()) {
+                long reads = entry.getValue()[0] * SAMPLE_RATE;
+                hotKeys.add(new MetricsSnapshot.HotKey(entry.getKey(), reads, reads / seconds));
+            }
+        }
+        Collections.sort(hotKeys, new Comparator<MetricsSnapshot.HotKey>() {
+            @Override
+            public int compare(MetricsSnapshot.HotKey lhs, MetricsSnapshot.HotKey rhs) {
+                return lhs.getReads() < rhs.getReads() ? 1 : lhs.getReads() == rhs.getReads() ? 0 : -1;
+            }
+        });
+        return hotKeys.size() > limit ? new ArrayList<>(hotKeys.subList(0, limit)) : hotKeys;
+    }
+
+    /*Finalizer of MurmurHash3, spreads consecutive seeds over the whole state */
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x85ebca6b;
+        value ^= value >>> 13;
+        value *= 0xc2b2ae35;
+        value ^= value >>> 16;
+        return value;
+    }
+}
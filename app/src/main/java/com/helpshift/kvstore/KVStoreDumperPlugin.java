@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prints the state of every opened store from a shell, {@code dumpapp kvstore [name]}: key count,
+ * how much of it is cached, the most read keys, writes waiting to be written and the latest slow
+ * operations. Counting keys of a store which isn't fully loaded reads its key index.
+ */
+public class KVStoreDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "kvstore";
+
+    private final SharedPreferencesContext mPreferencesContext;
+
+    public KVStoreDumperPlugin(SharedPreferencesContext preferencesContext) {
+        mPreferencesContext = preferencesContext;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpException {
+        List<String> args = dumpContext.getArgsAsList();
+        if (args.size() > 1) {
+            throw new DumpUsageException("Usage: dumpapp " + NAME + " [<store name>]");
+        }
+        Map<String, SharedPreferencesImpl> stores = mPreferencesContext.getOpenedPreferences();
+        if (!args.isEmpty() && !stores.containsKey(args.get(0))) {
+            throw new DumpUsageException("No opened store named " + args.get(0) + ", opened: " + stores.keySet());
+        }
+        PrintStream out = dumpContext.getStdout();
+        for (Map.Entry<String, SharedPreferencesImpl> store : stores.entrySet()) {
+            if (args.isEmpty() || args.get(0).equals(store.getKey())) {
+                dump(out, store.getValue());
+            }
+        }
+        if (stores.isEmpty()) {
+            out.println("No stores opened yet");
+        }
+    }
+
+    private static void dump(PrintStream out, SharedPreferencesImpl sharedPreferences) {
+        MetricsSnapshot metrics = sharedPreferences.getMetrics();
+        String keyCount;
+        try {
+            keyCount = Integer.toString(sharedPreferences.getKeyCount());
+        } catch (IllegalStateException e) {
+            keyCount = "? (" + e.getMessage() + ")";
+        }
+        out.println(metrics.getPreferenceName());
+        out.println("  keys: " + keyCount + ", cached: " + metrics.getCacheEntries()
+                + (sharedPreferences.isFullyLoaded() ? " (fully loaded)" : "")
+                + ", cache: " + kilobytes(metrics.getCacheBytes()) + " of " + kilobytes(metrics.getCacheBudgetBytes()));
+        long reads = metrics.getReadHits() + metrics.getReadMisses();
+        out.println("  reads: " + reads + ", from memory: " + percent(metrics.getReadHits(), reads)
+                + ", queries: " + micros(metrics.getQueryNanos()));
+        out.println("  writes: pending keys: " + metrics.getPendingKeys() + ", queued tasks: "
+                + metrics.getWriteQueueDepth() + ", failures: " + metrics.getCommitFailures());
+        out.println("  commits: " + micros(metrics.getCommitNanos()) + ", keys per batch: p50 "
+                + metrics.getCommitBatchSizes().getPercentile(50) + " max " + metrics.getCommitBatchSizes().getMax());
+        out.println("  listeners: " + micros(metrics.getDispatchNanos()));
+        out.println("  hot keys:");
+        for (MetricsSnapshot.HotKey hotKey : metrics.getHotKeys()) {
+            out.println(String.format(Locale.US, "    %-40s %10d reads %10.1f/s", hotKey.getKey(), hotKey.getReads(),
+                    hotKey.getReadsPerSecond()));
+        }
+        out.println("  slow operations:");
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        for (MetricsSnapshot.SlowOperation slowOperation : metrics.getSlowOperations()) {
+            out.println("    " + format.format(new Date(slowOperation.getTimeMillis())) + " " + slowOperation);
+        }
+        out.println();
+    }
+
+    private static String micros(MetricsSnapshot.Distribution nanos) {
+        return nanos.getCount() + " taking p50 " + nanos.getPercentile(50) / 1000 + "us p99 "
+                + nanos.getPercentile(99) / 1000 + "us max " + nanos.getMax() / 1000 + "us";
+    }
+
+    private static String kilobytes(long bytes) {
+        return bytes / 1024 + "KB";
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "-" : String.format(Locale.US, "%.1f%%", 100.0 * part / whole);
+    }
+}
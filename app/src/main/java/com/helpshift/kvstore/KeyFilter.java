@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the keys stored in a preference table. A key the filter has never seen is
+ * certainly absent, so lookups of missing keys can be answered without a query. Keys are only
+ * ever added, removed keys keep matching until the filter is rebuilt.
+ */
+class KeyFilter {
+
+    private static final int BITS_PER_KEY = 10;
+
+    private static final int HASH_COUNT = 7;
+
+    private static final int MIN_BITS = 1024;
+
+    private final AtomicLongArray mBits;
+
+    private final int mBitCount;
+
+    /**
+     * @param expectedKeys number of keys the filter is sized for, about 1% of absent keys match
+     *                     at that fill.
+     */
+    KeyFilter(int expectedKeys) {
+        int words = (Math.max(expectedKeys * BITS_PER_KEY, MIN_BITS) + 63) / 64;
+        mBits = new AtomicLongArray(words);
+        mBitCount = words * 64;
+    }
+
+    void add(String key) {
+        int hash1 = key.hashCode();
+        int hash2 = mix(hash1);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = index(hash1 + i * hash2);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = mBits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!mBits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * @return false if {@code key} was never added, true if it may have been.
+     */
+    boolean mightContain(String key) {
+        int hash1 = key.hashCode();
+        int hash2 = mix(hash1);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = index(hash1 + i * hash2);
+            if ((mBits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int hash) {
+        return (hash & Integer.MAX_VALUE) % mBitCount;
+    }
+
+    /*Second hash derived from the first one, murmur3 finalizer */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash | 1;
+    }
+}
@@ -28,9 +28,7 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 
-import java.util.Map;
-
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Map<String, String>> {
+public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<PreferenceDelta> {
 
     EditText mKeyEditText;
     EditText mValueEditText;
@@ -49,14 +47,8 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         mButton.setOnClickListener(mButtonClickListener);
         mPreferenceAdapter = new PreferenceAdapter(this, R.layout.layout_list_item);
         mListView.setAdapter(mPreferenceAdapter);
-        getSupportLoaderManager().restartLoader(1, null, this).forceLoad();
-        SharedPreferencesContext.getInstance(getApplicationContext()).getSharedPreference(getApplicationContext())
-                .registerOnSharedPreferenceChangeListener(new SharedPreferences.OnSharedPreferenceChangeListener() {
-                    @Override
-                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-                        getSupportLoaderManager().restartLoader(1, null, MainActivity.this).forceLoad();
-                    }
-                });
+        /*The loader follows changes on its own and delivers only what changed */
+        getSupportLoaderManager().initLoader(1, null, this);
     }
 
 
@@ -79,19 +71,19 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     };
 
     @Override
-    public Loader<Map<String, String>> onCreateLoader(int id, Bundle args) {
+    public Loader<PreferenceDelta> onCreateLoader(int id, Bundle args) {
         return new PreferenceLoader(getApplicationContext());
     }
 
     @Override
-    public void onLoadFinished(Loader<Map<String, String>> loader, Map<String, String> data) {
+    public void onLoadFinished(Loader<PreferenceDelta> loader, PreferenceDelta delta) {
         Log.d(getClass().getSimpleName(), "Received Data");
-        if (data != null)
-            mPreferenceAdapter.setData(data);
+        if (delta != null)
+            mPreferenceAdapter.applyDelta(delta);
     }
 
     @Override
-    public void onLoaderReset(Loader<Map<String, String>> loader) {
+    public void onLoaderReset(Loader<PreferenceDelta> loader) {
         Log.d(getClass().getSimpleName(), "Reset Loader");
     }
 
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counters of one store since it was created, see {@link SharedPreferencesImpl#getMetrics()}.
+ * Durations are in nanoseconds. {@link #toString()} is meant for logs.
+ */
+public final class MetricsSnapshot {
+
+    private final String mPreferenceName;
+
+    private final long mReadHits;
+
+    private final long mReadMisses;
+
+    private final List<HotKey> mHotKeys;
+
+    private final Distribution mQueryNanos;
+
+    private final Distribution mCommitBatchSizes;
+
+    private final Distribution mCommitNanos;
+
+    private final long mCommitFailures;
+
+    private final Distribution mDispatchNanos;
+
+    private final List<SlowOperation> mSlowOperations;
+
+    private final int mCacheEntries;
+
+    private final long mCacheBytes;
+
+    private final long mCacheBudgetBytes;
+
+    private final int mPendingKeys;
+
+    private final int mWriteQueueDepth;
+
+    MetricsSnapshot(String preferenceName, long readHits, long readMisses, List<HotKey> hotKeys,
+                    Distribution queryNanos, Distribution commitBatchSizes, Distribution commitNanos,
+                    long commitFailures, Distribution dispatchNanos, List<SlowOperation> slowOperations,
+                    int cacheEntries, long cacheBytes, long cacheBudgetBytes, int pendingKeys,
+                    int writeQueueDepth) {
+        mPreferenceName = preferenceName;
+        mReadHits = readHits;
+        mReadMisses = readMisses;
+        mHotKeys = Collections.unmodifiableList(hotKeys);
+        mQueryNanos = queryNanos;
+        mCommitBatchSizes = commitBatchSizes;
+        mCommitNanos = commitNanos;
+        mCommitFailures = commitFailures;
+        mDispatchNanos = dispatchNanos;
+        mSlowOperations = Collections.unmodifiableList(slowOperations);
+        mCacheEntries = cacheEntries;
+        mCacheBytes = cacheBytes;
+        mCacheBudgetBytes = cacheBudgetBytes;
+        mPendingKeys = pendingKeys;
+        mWriteQueueDepth = writeQueueDepth;
+    }
+
+    public String getPreferenceName() {
+        return mPreferenceName;
+    }
+
+    /**
+     * @return key lookups answered from memory, including keys known to be missing.
+     */
+    public long getReadHits() {
+        return mReadHits;
+    }
+
+    /**
+     * @return key lookups which read the storage.
+     */
+    public long getReadMisses() {
+        return mReadMisses;
+    }
+
+    /**
+     * @return the most read keys, estimated from a sample of the reads, most read first.
+     */
+    public List<HotKey> getHotKeys() {
+        return mHotKeys;
+    }
+
+    /**
+     * @return time taken by reads of the storage, one per missed key or per {@code getMany()}.
+     */
+    public Distribution getQueryNanos() {
+        return mQueryNanos;
+    }
+
+    /**
+     * @return keys per written batch.
+     */
+    public Distribution getCommitBatchSizes() {
+        return mCommitBatchSizes;
+    }
+
+    /**
+     * @return time taken to write a batch to the storage, failed writes are left out.
+     */
+    public Distribution getCommitNanos() {
+        return mCommitNanos;
+    }
+
+    public long getCommitFailures() {
+        return mCommitFailures;
+    }
+
+    /**
+     * @return time listeners took to handle a change set, per delivery.
+     */
+    public Distribution getDispatchNanos() {
+        return mDispatchNanos;
+    }
+
+    /**
+     * @return the latest reads, commits and listener deliveries which took longer than a frame,
+     * latest first.
+     */
+    public List<SlowOperation> getSlowOperations() {
+        return mSlowOperations;
+    }
+
+    public int getCacheEntries() {
+        return mCacheEntries;
+    }
+
+    /**
+     * @return estimated heap taken by cached values.
+     */
+    public long getCacheBytes() {
+        return mCacheBytes;
+    }
+
+    /**
+     * @return heap cached values may take, see {@link SharedPreferencesImpl#setCacheBudget(long)}.
+     */
+    public long getCacheBudgetBytes() {
+        return mCacheBudgetBytes;
+    }
+
+    /**
+     * @return keys applied but not written yet.
+     */
+    public int getPendingKeys() {
+        return mPendingKeys;
+    }
+
+    /**
+     * @return tasks of this store waiting in its {@link WriteScheduler}.
+     */
+    public int getWriteQueueDepth() {
+        return mWriteQueueDepth;
+    }
+
+    @Override
+    public String toString() {
+        return mPreferenceName + ": hits=" + mReadHits + " misses=" + mReadMisses
+                + " query={" + mQueryNanos + "} batch={" + mCommitBatchSizes + "} commit={" + mCommitNanos
+                + "} commitFailures=" + mCommitFailures + " dispatch={" + mDispatchNanos
+                + "} slowOperations=" + mSlowOperations.size() + " cacheEntries=" + mCacheEntries
+                + " cacheBytes=" + mCacheBytes + "/" + mCacheBudgetBytes
+                + " pendingKeys=" + mPendingKeys + " writeQueueDepth=" + mWriteQueueDepth;
+    }
+
+    /**
+     * Recorded values of a {@link Histogram}. Percentiles are the largest value of the bucket
+     * they fall in, at most 3% above the recorded value.
+     */
+    public static final class Distribution {
+
+        private final long[] mCounts;
+
+        private final long mCount;
+
+        private final long mSum;
+
+        private final long mMax;
+
+        Distribution(long[] counts, long sum, long max) {
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * @param percentile between 0 and 100, e.g. 99.9.
+         * @return a value at least {@code percentile}% of the recorded values don't exceed, 0 if
+         * nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(mCount * Math.min(percentile, 100) / 100));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.highestValueIn(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + " mean=" + Math.round(getMean()) + " p50=" + getPercentile(50)
+                    + " p99=" + getPercentile(99) + " p99.9=" + getPercentile(99.9) + " max=" + mMax;
+        }
+    }
+
+    /**
+     * A key among the most read ones of a store.
+     */
+    public static final class HotKey {
+
+        private final String mKey;
+
+        private final long mReads;
+
+        private final double mReadsPerSecond;
+
+        HotKey(String key, long reads, double readsPerSecond) {
+            mKey = key;
+            mReads = reads;
+            mReadsPerSecond = readsPerSecond;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * @return estimated reads since the store was created.
+         */
+        public long getReads() {
+            return mReads;
+        }
+
+        public double getReadsPerSecond() {
+            return mReadsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mReads;
+        }
+    }
+
+    /**
+     * An operation which took longer than a frame.
+     */
+    public static final class SlowOperation {
+
+        private final String mOperation;
+
+        private final String mSubject;
+
+        private final long mDurationNanos;
+
+        private final long mTimeMillis;
+
+        SlowOperation(String operation, String subject, long durationNanos, long timeMillis) {
+            mOperation = operation;
+            mSubject = subject;
+            mDurationNanos = durationNanos;
+            mTimeMillis = timeMillis;
+        }
+
+        /**
+         * @return "get", "getMany", "commit" or "dispatch".
+         */
+        public String getOperation() {
+            return mOperation;
+        }
+
+        /**
+         * @return the key read, the number of keys read or written, or the class of the listener.
+         */
+        public String getSubject() {
+            return mSubject;
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /**
+         * @return wall clock time the operation finished at.
+         */
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return mOperation + "(" + mSubject + ") " + mDurationNanos / 1000000 + "ms";
+        }
+    }
+}
@@ -20,21 +20,56 @@ import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
+import com.helpshift.kvstore.storage.PreferenceStorage;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class PreferenceAdapter extends ArrayAdapter {
-    private List<String> keyList = new ArrayList<>();
-    private Map<String, String> map;
+    /*Sorted, so inserted and removed keys are found by binary search */
+    private final List<String> keyList = new ArrayList<>();
+    private final Map<String, String> map = new HashMap<>();
+    private long version = -1;
 
     public PreferenceAdapter(Context context, int resource) {
         super(context, resource);
     }
 
-    public void setData(Map<String, String> data) {
-        map = data;
-        keyList = new ArrayList<>(data.keySet());
+    /**
+     * Applies the keys inserted, updated and removed by {@code delta} in place. Falls back to
+     * reading all preferences of the delta if the adapter missed the deltas before it.
+     */
+    public void applyDelta(PreferenceDelta delta) {
+        if (delta.getVersion() == version) {
+            return;
+        }
+        if (delta.isFull() || delta.getBaseVersion() != version) {
+            map.clear();
+            map.putAll(delta.getData());
+            keyList.clear();
+            keyList.addAll(map.keySet());
+            Collections.sort(keyList, PreferenceStorage.KEY_ORDER);
+        } else {
+            for (String key : delta.getRemoved()) {
+                map.remove(key);
+                int index = Collections.binarySearch(keyList, key, PreferenceStorage.KEY_ORDER);
+                if (index >= 0) {
+                    keyList.remove(index);
+                }
+            }
+            for (Map.Entry<String, String> entry : delta.getInserted().entrySet()) {
+                map.put(entry.getKey(), entry.getValue());
+                int index = Collections.binarySearch(keyList, entry.getKey(), PreferenceStorage.KEY_ORDER);
+                if (index < 0) {
+                    keyList.add(-index - 1, entry.getKey());
+                }
+            }
+            map.putAll(delta.getUpdated());
+        }
+        version = delta.getVersion();
         notifyDataSetChanged();
     }
 
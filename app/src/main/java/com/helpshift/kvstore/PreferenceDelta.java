@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helpshift.kvstore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difference between two versions of the preferences shown by {@link PreferenceLoader}, with
+ * values as text. A delta either lists the keys inserted, updated and removed since its base
+ * version, or is full and replaces everything.
+ */
+public final class PreferenceDelta {
+
+    private final long mBaseVersion;
+
+    private final boolean mFull;
+
+    private final Map<String, String> mInserted;
+
+    private final Map<String, String> mUpdated;
+
+    private final Set<String> mRemoved;
+
+    /*View of the loader's preferences, only read on the main thread */
+    private final Map<String, String> mData;
+
+    private PreferenceDelta(long baseVersion, boolean full, Map<String, String> inserted, Map<String, String> updated,
+                            Set<String> removed, Map<String, String> data) {
+        mBaseVersion = baseVersion;
+        mFull = full;
+        mInserted = Collections.unmodifiableMap(inserted);
+        mUpdated = Collections.unmodifiableMap(updated);
+        mRemoved = Collections.unmodifiableSet(removed);
+        mData = data;
+    }
+
+    /**
+     * @param all  every preference.
+     * @param data view of the preferences once the delta is applied.
+     */
+    static PreferenceDelta full(long baseVersion, Map<String, String> all, Map<String, String> data) {
+        return new PreferenceDelta(baseVersion, true, all, Collections.<String, String>emptyMap(),
+                Collections.<String>emptySet(), data);
+    }
+
+    /**
+     * Compares the current values of changed keys with the base version.
+     *
+     * @param base    preferences at {@code baseVersion}.
+     * @param current current value of every key which may have changed, {@code null} if it is not set.
+     * @param data    view of the preferences once the delta is applied.
+     */
+    static PreferenceDelta diff(long baseVersion, Map<String, String> base, Map<String, String> current,
+                                Map<String, String> data) {
+        Map<String, String> inserted = new HashMap<>();
+        Map<String, String> updated = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            String baseValue = base.get(key);
+            if (value == null) {
+                if (baseValue != null) {
+                    removed.add(key);
+                }
+            } else if (baseValue == null) {
+                inserted.put(key, value);
+            } else if (!baseValue.equals(value)) {
+                updated.put(key, value);
+            }
+        }
+        return new PreferenceDelta(baseVersion, false, inserted, updated, removed, data);
+    }
+
+    /**
+     * Brings {@code preferences} from the base version to the version of this delta.
+     */
+    void applyTo(Map<String, String> preferences) {
+        if (mFull) {
+            preferences.clear();
+        }
+        preferences.keySet().removeAll(mRemoved);
+        preferences.putAll(mInserted);
+        preferences.putAll(mUpdated);
+    }
+
+    /**
+     * @return the version the delta applies to.
+     */
+    public long getBaseVersion() {
+        return mBaseVersion;
+    }
+
+    /**
+     * @return the version the delta leads to.
+     */
+    public long getVersion() {
+        return mBaseVersion + 1;
+    }
+
+    /**
+     * @return whether {@link #getInserted()} holds every preference and earlier ones are dropped.
+     */
+    public boolean isFull() {
+        return mFull;
+    }
+
+    public boolean isEmpty() {
+        return !mFull && mInserted.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+    }
+
+    public Map<String, String> getInserted() {
+        return mInserted;
+    }
+
+    public Map<String, String> getUpdated() {
+        return mUpdated;
+    }
+
+    public Set<String> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * @return every preference at the latest delivered version, for consumers which missed
+     * earlier deltas. Must only be read on the main thread.
+     */
+    public Map<String, String> getData() {
+        return mData;
+    }
+}
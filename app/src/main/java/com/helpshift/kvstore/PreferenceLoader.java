@@ -14,40 +14,142 @@
 package com.helpshift.kvstore;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.support.v4.content.AsyncTaskLoader;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
-public class PreferenceLoader extends AsyncTaskLoader<Map<String, String>> {
+/**
+ * Loads the default preferences as {@link PreferenceDelta}s. The first load reads every
+ * preference, later loads only read the keys changed since, so a refresh costs time proportional
+ * to the change rather than to the store. Changes are picked up on its own while the loader is
+ * started.
+ */
+public class PreferenceLoader extends AsyncTaskLoader<PreferenceDelta> {
+
+    /*Preferences as last delivered, written on the main thread only while no load runs */
+    private final Map<String, String> mData = new HashMap<>();
+
+    private final Map<String, String> mDataView = Collections.unmodifiableMap(mData);
+
+    private long mVersion;
+
+    private boolean mLoaded;
+
+    private boolean mObserving;
 
-    private Map<String, String> mData;
+    /*Guarded by this, changed keys not read by a load yet */
+    private Set<String> mChangedKeys = new HashSet<>();
+
+    private boolean mReloadAll;
+
+    private final ChangeListener mChangeListener = new ChangeListener() {
+        @Override
+        public void onPreferencesChanged(SharedPreferences sharedPreferences, ChangeSet changeSet) {
+            synchronized (PreferenceLoader.this) {
+                mChangedKeys.addAll(changeSet.getKeys());
+                mReloadAll |= changeSet.isCleared();
+            }
+            onContentChanged();
+        }
+    };
 
     public PreferenceLoader(Context context) {
         super(context);
     }
 
+    private SharedPreferencesImpl preferences() {
+        return (SharedPreferencesImpl) SharedPreferencesContext.getInstance(getContext())
+                .getSharedPreference(getContext());
+    }
+
     @Override
     protected void onStartLoading() {
-        if (mData != null) {
-            deliverResult(mData);
-        }else{
+        if (!mObserving) {
+            preferences().registerChangeListener(mChangeListener, ChangeFilter.allKeys(),
+                    ChangeExecutors.mainThread());
+            mObserving = true;
+        }
+        boolean changed;
+        synchronized (this) {
+            changed = !mChangedKeys.isEmpty() || mReloadAll;
+        }
+        if (!mLoaded || changed || takeContentChanged()) {
             forceLoad();
         }
     }
 
     @Override
-    public Map<String, String> loadInBackground() {
-        return (Map<String, String>) SharedPreferencesContext.getInstance(getContext()).getSharedPreference(getContext()).getAll();
+    public PreferenceDelta loadInBackground() {
+        SharedPreferencesImpl sharedPreferences = preferences();
+        Set<String> changedKeys;
+        boolean reloadAll;
+        synchronized (this) {
+            changedKeys = mChangedKeys;
+            reloadAll = mReloadAll || !mLoaded;
+            mChangedKeys = new HashSet<>();
+            mReloadAll = false;
+        }
+        if (reloadAll) {
+            final Map<String, String> all = new HashMap<>();
+            sharedPreferences.forEach(new PreferenceVisitor() {
+                @Override
+                public boolean visit(String key, Object value) {
+                    all.put(key, String.valueOf(value));
+                    return true;
+                }
+            });
+            return PreferenceDelta.full(mVersion, all, mDataView);
+        }
+        Map<String, String> current = new HashMap<>();
+        for (String key : changedKeys) {
+            Object value = sharedPreferences.getValueByKey(key);
+            current.put(key, value == null ? null : String.valueOf(value));
+        }
+        return PreferenceDelta.diff(mVersion, mData, current, mDataView);
     }
 
     @Override
-    public void deliverResult(Map<String, String> data) {
-        mData = data;
-        super.deliverResult(data);
+    public void onCanceled(PreferenceDelta delta) {
+        /*The delta is dropped, so its keys must be read again */
+        synchronized (this) {
+            if (delta.isFull()) {
+                mReloadAll = true;
+            } else {
+                mChangedKeys.addAll(delta.getInserted().keySet());
+                mChangedKeys.addAll(delta.getUpdated().keySet());
+                mChangedKeys.addAll(delta.getRemoved());
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(PreferenceDelta delta) {
+        if (isReset()) {
+            return;
+        }
+        delta.applyTo(mData);
+        mVersion = delta.getVersion();
+        mLoaded = true;
+        super.deliverResult(delta);
     }
 
     @Override
     protected void onReset() {
         super.onReset();
+        if (mObserving) {
+            preferences().unregisterChangeListener(mChangeListener);
+            mObserving = false;
+        }
+        synchronized (this) {
+            mChangedKeys.clear();
+            mReloadAll = false;
+        }
+        mData.clear();
+        mLoaded = false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import com.helpshift.kvstore.database.SQLiteDatabaseHelper;
+
+/**
+ * Decides which database file holds the table of each preference store. Stores in different files
+ * have their own connection, so their commits run in parallel and don't share locks or syncs.
+ * <p>
+ * Changing the policy of an app does not move existing preferences to their new file.
+ */
+public abstract class ShardingPolicy {
+
+    private static final String DATABASE_PREFIX = "app_settings_";
+
+    private static final String DATABASE_SUFFIX = ".db";
+
+    /**
+     * @return name of the database file holding {@code preferenceName}.
+     */
+    public abstract String databaseName(String preferenceName);
+
+    /**
+     * Every store in {@link SQLiteDatabaseHelper#DATABASE_NAME}, the default.
+     */
+    public static ShardingPolicy singleFile() {
+        return new ShardingPolicy() {
+            @Override
+            public String databaseName(String preferenceName) {
+                return SQLiteDatabaseHelper.DATABASE_NAME;
+            }
+        };
+    }
+
+    /**
+     * One database file per store.
+     */
+    public static ShardingPolicy filePerStore() {
+        return new ShardingPolicy() {
+            @Override
+            public String databaseName(String preferenceName) {
+                return DATABASE_PREFIX + preferenceName + DATABASE_SUFFIX;
+            }
+        };
+    }
+
+    /**
+     * Spreads stores over {@code shards} database files by the hash of their name, bounding the
+     * number of open connections when there are many stores.
+     */
+    public static ShardingPolicy hashed(final int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Invalid shard count " + shards);
+        }
+        return new ShardingPolicy() {
+            @Override
+            public String databaseName(String preferenceName) {
+                return DATABASE_PREFIX + (preferenceName.hashCode() & Integer.MAX_VALUE) % shards + DATABASE_SUFFIX;
+            }
+        };
+    }
+}
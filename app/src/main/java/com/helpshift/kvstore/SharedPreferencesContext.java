@@ -15,21 +15,61 @@ package com.helpshift.kvstore;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.sqlite.SQLiteDatabase;
 
 import com.helpshift.kvstore.database.PreferencesContent;
+import com.helpshift.kvstore.database.ReaderPool;
 import com.helpshift.kvstore.database.SQLiteDatabaseHelper;
+import com.helpshift.kvstore.database.SQLiteStorage;
+import com.helpshift.kvstore.provider.PreferenceProvider;
+import com.helpshift.kvstore.provider.ProviderStorage;
+import com.helpshift.kvstore.storage.LogStorage;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+import com.helpshift.kvstore.storage.SnapshotStorage;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 public class SharedPreferencesContext {
 
-    private final SQLiteDatabase mSqlDatabase;
+    private static final int LOADER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final Context mContext;
     private static SharedPreferencesContext mPreferencesContext;
 
-    private Map<String, SharedPreferences> mSharedPreferences = new ConcurrentHashMap<>();
+    /*Opens and preloads preferences off the calling thread */
+    private final ThreadPoolExecutor mLoader;
+
+    private Map<String, SharedPreferencesImpl> mSharedPreferences = new ConcurrentHashMap<>();
+
+    private WriteScheduler mWriteScheduler = DefaultWriteScheduler.threadPerStore(
+            DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY);
+
+    private ShardingPolicy mShardingPolicy = ShardingPolicy.singleFile();
+
+    /*Helpers of the database files opened so far, by file name */
+    private final Map<String, SQLiteDatabaseHelper> mDatabaseHelpers = new HashMap<>();
+
+    /*Reader connections per database file, 0 if concurrent reads are disabled */
+    private int mReaderConnections;
+
+    private final Map<String, ReaderPool> mReaderPools = new HashMap<>();
+
+    private boolean mSnapshotsEnabled;
+
+    /*Changes kept per preference file, 0 if changes are not logged */
+    private int mChangeLogRetention;
+
+    /*Authority of the PreferenceProvider all processes share the stores through, null if single process */
+    private String mAuthority;
 
     /**
      * Return singleton instance of {@link SharedPreferencesContext}.
@@ -49,8 +89,161 @@ public class SharedPreferencesContext {
     }
 
     private SharedPreferencesContext(Context context) {
-        SQLiteDatabaseHelper helper = new SQLiteDatabaseHelper(context);
-        mSqlDatabase = helper.getWritableDatabase();
+        mContext = context.getApplicationContext();
+        mLoader = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory("KVStore-loader"));
+        mLoader.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Opens the given preferences and reads them into memory, several stores at once on
+     * background threads. Returns right away; reads of a preloading store are answered from memory
+     * and only wait if they need the database before that store finished loading. Call it as
+     * early as possible, e.g. from {@link android.app.Application#onCreate()}.
+     */
+    public synchronized void preload(Collection<String> preferenceNames) {
+        for (String preferenceName : preferenceNames) {
+            final SharedPreferencesImpl sharedPreferences = mSharedPreferences.get(preferenceName);
+            if (sharedPreferences == null) {
+                createPreference(preferenceName, true);
+            } else if (!sharedPreferences.isFullyLoaded()) {
+                mLoader.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sharedPreferences.loadFully();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Replaces the {@link WriteScheduler} which persists edits. Only preferences retrieved after
+     * this call use the new scheduler, so it should be set before the first preference is read,
+     * e.g. from {@link android.app.Application#onCreate()}.
+     */
+    public synchronized void setWriteScheduler(WriteScheduler writeScheduler) {
+        mWriteScheduler = writeScheduler;
+    }
+
+    /**
+     * Switches the databases to write-ahead logging and makes reads which miss the cache use one
+     * of {@code readerConnections} read only connections per database file, so they don't wait
+     * behind commits. Must be called before the first preference is retrieved, e.g. from
+     * {@link android.app.Application#onCreate()}.
+     *
+     * @throws IllegalStateException if a preference was already retrieved.
+     */
+    public synchronized void enableConcurrentReads(int readerConnections) {
+        if (readerConnections <= 0) {
+            throw new IllegalArgumentException("Invalid reader connection count " + readerConnections);
+        }
+        checkNoPreferenceRetrieved();
+        mReaderConnections = readerConnections;
+    }
+
+    /**
+     * Sets which database file holds each preference, see {@link ShardingPolicy}. Defaults to
+     * {@link ShardingPolicy#singleFile()}. Must be called before the first preference is
+     * retrieved, e.g. from {@link android.app.Application#onCreate()}.
+     *
+     * @throws IllegalStateException if a preference was already retrieved.
+     */
+    public synchronized void setShardingPolicy(ShardingPolicy shardingPolicy) {
+        checkNoPreferenceRetrieved();
+        mShardingPolicy = shardingPolicy;
+    }
+
+    /**
+     * Keeps a memory mapped snapshot of every preference file next to its database, see
+     * {@link SnapshotStorage}. Cold reads become binary searches over the snapshot instead of
+     * queries. Every commit discards the snapshot of its file and once no commit happened for
+     * {@link SnapshotStorage#DEFAULT_QUIET_PERIOD_MILLIS}, the whole file is read into memory and
+     * written again as a new snapshot. Each quiet spell thus costs a write of the whole file on top
+     * of the commits, and files committed more often than that are rarely read from a snapshot.
+     * Must be called before the first preference is retrieved, e.g. from
+     * {@link android.app.Application#onCreate()}.
+     *
+     * @throws IllegalStateException if a preference was already retrieved.
+     */
+    public synchronized void setSnapshotsEnabled(boolean snapshotsEnabled) {
+        checkNoPreferenceRetrieved();
+        mSnapshotsEnabled = snapshotsEnabled;
+    }
+
+    /**
+     * Records the latest {@code retention} changes of every preference file in a change log next to
+     * it, read through {@link SharedPreferencesImpl#getChangesSince(long, PreferenceVisitor)}. Each
+     * commit writes one more row per modified key. Must be called before the first preference is
+     * retrieved, e.g. from {@link android.app.Application#onCreate()}.
+     *
+     * @throws IllegalStateException if a preference was already retrieved.
+     */
+    public synchronized void enableChangeLog(int retention) {
+        if (retention <= 0) {
+            throw new IllegalArgumentException("Invalid change log retention " + retention);
+        }
+        checkNoPreferenceRetrieved();
+        mChangeLogRetention = retention;
+    }
+
+    /**
+     * Shares every preference with the other processes of the app through the
+     * {@link PreferenceProvider} declared in the manifest with {@code authority}. Writes are sent to
+     * the provider's process, reads stay cached in every process and are only read again after
+     * another write, which is noticed without a call into the provider. Listeners are only called
+     * for writes of their own process. Must be called in every
+     * process before the first preference is retrieved, with the same configuration in each, e.g.
+     * from {@link android.app.Application#onCreate()}.
+     *
+     * @throws IllegalStateException if a preference was already retrieved.
+     */
+    public synchronized void enableMultiProcess(String authority) {
+        checkNoPreferenceRetrieved();
+        mAuthority = authority;
+    }
+
+    private void checkNoPreferenceRetrieved() {
+        if (!mSharedPreferences.isEmpty()) {
+            throw new IllegalStateException("Databases must be configured before the first preference is retrieved");
+        }
+    }
+
+    /**
+     * Writes every pending edit of every preference and waits until they are persisted. Meant to
+     * be called before the process may go away, e.g. when the app moves to the background.
+     *
+     * @return false if edits were still pending when {@code timeoutMillis} elapsed.
+     */
+    public boolean drainPendingWrites(long timeoutMillis) throws InterruptedException {
+        WriteScheduler writeScheduler;
+        synchronized (this) {
+            for (SharedPreferencesImpl sharedPreferences : mSharedPreferences.values()) {
+                sharedPreferences.flushPendingWrites();
+            }
+            writeScheduler = mWriteScheduler;
+        }
+        return writeScheduler.drain(timeoutMillis);
+    }
+
+    /**
+     * Releases cached preference values, call it from
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+     *
+     * @see SharedPreferencesImpl#trimMemory(int)
+     */
+    public void trimMemory(int level) {
+        for (SharedPreferencesImpl sharedPreferences : mSharedPreferences.values()) {
+            sharedPreferences.trimMemory(level);
+        }
+    }
+
+    /**
+     * @return the preferences opened so far, sorted by name, e.g. to read their
+     * {@link SharedPreferencesImpl#getMetrics()}.
+     */
+    public Map<String, SharedPreferencesImpl> getOpenedPreferences() {
+        return Collections.unmodifiableMap(new TreeMap<>(mSharedPreferences));
     }
 
     /**
@@ -75,6 +268,43 @@ public class SharedPreferencesContext {
         }
     }
 
+    /**
+     * Same as {@link #getSharedPreference(Context, String)}, additionally setting how the
+     * preferences persist committed edits.
+     *
+     * @param durability {@link Durability} of the preferences, replaces the one set by earlier callers.
+     */
+    public synchronized SharedPreferences getSharedPreference(Context context, String preferenceName,
+                                                             Durability durability) {
+        SharedPreferencesImpl sharedPreferences = (SharedPreferencesImpl) getSharedPreference(context, preferenceName);
+        sharedPreferences.setDurability(durability);
+        return sharedPreferences;
+    }
+
+    /**
+     * Same as {@link #getSharedPreference(Context, String)}, persisting the preferences in
+     * {@code storage} instead of a database file, e.g. one created by {@link #newLogStorage(String)}.
+     * The storage is only used if the preferences weren't retrieved before.
+     */
+    public synchronized SharedPreferences getSharedPreference(Context context, String preferenceName,
+                                                             PreferenceStorage storage) {
+        SharedPreferencesImpl sharedPreferences = mSharedPreferences.get(preferenceName);
+        if (sharedPreferences == null) {
+            sharedPreferences = new SharedPreferencesImpl(preferenceName, storage, mWriteScheduler, false);
+            mSharedPreferences.put(preferenceName, sharedPreferences);
+            sharedPreferences.openAsync(mLoader);
+        }
+        return sharedPreferences;
+    }
+
+    /**
+     * @return an append-only log for the preferences 'preferenceName' in the app's files
+     * directory, compacted in the background. Writes far fewer bytes per commit than the database.
+     */
+    public LogStorage newLogStorage(String preferenceName) {
+        return new LogStorage(new File(mContext.getFilesDir(), "app_settings_" + preferenceName + ".log"), mLoader);
+    }
+
     /**
      * Retrieve and hold the contents of the preferences  'preferenceName', returning
      * a SharedPreferences through which you can retrieve and modify its
@@ -96,11 +326,42 @@ public class SharedPreferencesContext {
     }
 
     private SharedPreferences getPreference(Context context, String preferenceName) {
-        SharedPreferences sharedPreferences = null;
-        synchronized (this) {
-            sharedPreferences = new SharedPreferencesImpl(preferenceName,mSqlDatabase);
-            mSharedPreferences.put(preferenceName, sharedPreferences);
-        }
+        return createPreference(preferenceName, false);
+    }
+
+    private synchronized SharedPreferencesImpl createPreference(String preferenceName, boolean loadFully) {
+        PreferenceStorage storage = mAuthority == null ? newDatabaseStorage(preferenceName)
+                : new ProviderStorage(mContext, mAuthority, preferenceName);
+        SharedPreferencesImpl sharedPreferences = new SharedPreferencesImpl(preferenceName, storage,
+                mWriteScheduler, loadFully);
+        mSharedPreferences.put(preferenceName, sharedPreferences);
+        sharedPreferences.openAsync(mLoader);
         return sharedPreferences;
     }
+
+    /**
+     * @return the storage 'preferenceName' is kept in within this process, as configured by
+     * {@link #setShardingPolicy(ShardingPolicy)}, {@link #enableConcurrentReads(int)},
+     * {@link #setSnapshotsEnabled(boolean)} and {@link #enableChangeLog(int)}. Not opened yet.
+     */
+    public synchronized PreferenceStorage newDatabaseStorage(String preferenceName) {
+        String databaseName = mShardingPolicy.databaseName(preferenceName);
+        SQLiteDatabaseHelper databaseHelper = mDatabaseHelpers.get(databaseName);
+        if (databaseHelper == null) {
+            databaseHelper = new SQLiteDatabaseHelper(mContext, databaseName);
+            databaseHelper.setWriteAheadLoggingOnOpen(mReaderConnections > 0);
+            mDatabaseHelpers.put(databaseName, databaseHelper);
+            if (mReaderConnections > 0) {
+                mReaderPools.put(databaseName, new ReaderPool(databaseHelper, mReaderConnections));
+            }
+        }
+        SQLiteStorage sqLiteStorage = new SQLiteStorage(preferenceName, databaseHelper, mReaderPools.get(databaseName));
+        sqLiteStorage.setChangeLogRetention(mChangeLogRetention);
+        PreferenceStorage storage = sqLiteStorage;
+        if (mSnapshotsEnabled) {
+            storage = new SnapshotStorage(storage, new File(mContext.getFilesDir(),
+                    "app_settings_" + preferenceName + ".snapshot"), mLoader);
+        }
+        return storage;
+    }
 }
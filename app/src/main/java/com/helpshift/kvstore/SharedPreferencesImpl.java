@@ -13,253 +13,1029 @@
 
 package com.helpshift.kvstore;
 
-import android.content.ContentValues;
+import android.content.ComponentCallbacks2;
 import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.os.AsyncTask;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
-import com.helpshift.kvstore.database.PreferencesContent;
+import com.helpshift.kvstore.database.ReaderPool;
+import com.helpshift.kvstore.database.SQLiteStorage;
+import com.helpshift.kvstore.storage.ChangeLog;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+import com.helpshift.kvstore.storage.VersionedStorage;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class SharedPreferencesImpl implements SharedPreferences {
 
+    /*Joined the elements of string sets stored before values were typed */
     private static final String SEPARATOR = ":-:";
 
-    private final Map<String, String> mMap = new ConcurrentHashMap<>();
+    private static final int ABSENT_KEY_CACHE_SIZE = 1024;
+
+    /*Rows read per query by forEach(), bounds the memory a scan holds */
+    static final int SCAN_PAGE_SIZE = 256;
+
+    static final long DEFAULT_CACHE_BYTES = 1024 * 1024;
+
+    /*Decoded values, String, Integer, Long, Float, Boolean or an unmodifiable Set of String */
+    private final ValueCache mCache = new ValueCache(DEFAULT_CACHE_BYTES);
+
+    /*Eviction count of mCache when the whole table was last loaded into it, -1 if never. While it
+    is current a key missing from mCache is missing from the table */
+    private volatile long mLoadedAtEviction = -1;
+
+    /*Keys recently looked up in the table and not found, least recently used dropped first */
+    private final Map<String, Boolean> mAbsentKeys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > ABSENT_KEY_CACHE_SIZE;
+        }
+    };
+
+    private volatile KeyFilter mKeyFilter;
 
-    private final Map<String, String> mModifiedMap = new ConcurrentHashMap<>();
+    /*Filter being filled by loadKeyFilter(), applied keys are added to it as well */
+    private volatile KeyFilter mPendingKeyFilter;
 
-    private final Set<String> mModifiedKeys = Collections.synchronizedSet(new HashSet<String>());
+    /*Only used after storage() returned */
+    private final PreferenceStorage mStorage;
 
-    private SQLiteDatabase mSqLiteDatabase;
+    private final FutureTask<Void> mOpenTask;
 
-    private static final Object mContent = new Object();
+    /*Set if other processes write the storage as well, null otherwise */
+    private final VersionedStorage mVersionedStorage;
+
+    /*Data version of the storage the cached values were read at, valid once mVersionRead is set.
+    Changed under the lock of mGroupCommitter */
+    private volatile int mDataVersion;
+
+    private volatile boolean mVersionRead;
+
+    /*Incremented when cached values are dropped for a write of another process */
+    private volatile long mInvalidations;
 
     private String mPreferenceName;
 
-    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    private final StoreMetrics mMetrics = new StoreMetrics();
+
+    private final ChangeDispatcher mChangeDispatcher = new ChangeDispatcher(this, mMetrics);
 
-    public SharedPreferencesImpl(String preferenceName, SQLiteDatabase sqlDatabase) {
-        mSqLiteDatabase = sqlDatabase;
+    private final WriteScheduler mWriteScheduler;
+
+    private final Runnable mCommitTask = new CommitPreferenceTask();
+
+    private final GroupCommitter mGroupCommitter = new GroupCommitter(new GroupCommitter.FlushTrigger() {
+        @Override
+        public void onFlushRequested(boolean urgent) {
+            mWriteScheduler.execute(mPreferenceName,
+                    urgent ? WriteScheduler.PRIORITY_HIGH : WriteScheduler.PRIORITY_NORMAL, mCommitTask);
+        }
+    });
+
+    /*Thread running mCommitTask, commit() from that thread writes inline instead of waiting on itself */
+    private volatile Thread mWriterThread;
+
+    private Durability mDurability = Durability.FULL;
+
+    private long mCommitWindowMillis = GroupCommitter.DEFAULT_WINDOW_MILLIS;
+
+    private int mMaxBatchSize = GroupCommitter.DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * The table is not touched here, it is opened by {@link #openAsync(Executor)} or by the first
+     * call which needs the database, whichever comes first.
+     *
+     * @param loadFully whether opening also reads the whole table into memory, see {@link #loadFully()}.
+     */
+    public SharedPreferencesImpl(String preferenceName, SQLiteOpenHelper openHelper, WriteScheduler writeScheduler,
+                                 boolean loadFully) {
+        this(preferenceName, openHelper, writeScheduler, loadFully, null);
+    }
+
+    /**
+     * @param readerPool connections reads are made on so they don't wait for commits, {@code null}
+     *                   to read on the connection of {@code openHelper}.
+     */
+    public SharedPreferencesImpl(String preferenceName, SQLiteOpenHelper openHelper, WriteScheduler writeScheduler,
+                                 boolean loadFully, ReaderPool readerPool) {
+        this(preferenceName, new SQLiteStorage(preferenceName, openHelper, readerPool), writeScheduler, loadFully);
+    }
+
+    /**
+     * @param storage where the preferences are persisted, e.g. a
+     *                {@link com.helpshift.kvstore.storage.LogStorage} for write heavy stores.
+     */
+    public SharedPreferencesImpl(String preferenceName, PreferenceStorage storage, WriteScheduler writeScheduler,
+                                 final boolean loadFully) {
+        mStorage = storage;
+        mVersionedStorage = storage instanceof VersionedStorage ? (VersionedStorage) storage : null;
         mPreferenceName = preferenceName;
-        PreferencesContent.createTableQuery(preferenceName, mSqLiteDatabase);
+        mWriteScheduler = writeScheduler;
+        mOpenTask = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                mStorage.open();
+                if (mVersionedStorage != null) {
+                    mDataVersion = mVersionedStorage.dataVersion();
+                    mVersionRead = true;
+                }
+                if (loadFully) {
+                    loadAll();
+                }
+                return null;
+            }
+        });
     }
 
-    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
-        synchronized (this) {
-            mListeners.put(listener, mContent);
+    /**
+     * Opens the storage on {@code executor}. Reads served from memory never wait for it, everything
+     * else blocks until the storage is open and, if requested, fully loaded.
+     */
+    public void openAsync(Executor executor) {
+        executor.execute(mOpenTask);
+    }
+
+    /**
+     * Opens the storage on the calling thread unless another thread is already doing it.
+     *
+     * @return the opened storage.
+     */
+    private PreferenceStorage storage() {
+        if (!mOpenTask.isDone()) {
+            mOpenTask.run();
+        }
+        try {
+            mOpenTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while opening " + mPreferenceName, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to open " + mPreferenceName, e.getCause());
         }
+        return mStorage;
+    }
+
+    /**
+     * Configures how {@link Editor#apply()} calls are grouped into a single transaction.
+     *
+     * @param windowMillis how long edits are collected before they are written, 0 writes every
+     *                     apply on its own.
+     * @param maxBatchSize number of modified keys after which collected edits are written without
+     *                     waiting for the window to elapse.
+     */
+    public synchronized void setGroupCommitPolicy(long windowMillis, int maxBatchSize) {
+        mCommitWindowMillis = windowMillis;
+        mMaxBatchSize = maxBatchSize;
+        updateCommitPolicy();
+    }
+
+    /**
+     * Sets how committed edits are persisted, see {@link Durability}. Defaults to
+     * {@link Durability#FULL}.
+     */
+    public synchronized void setDurability(Durability durability) {
+        mDurability = durability;
+        updateCommitPolicy();
+    }
+
+    public synchronized Durability getDurability() {
+        return mDurability;
+    }
+
+    private void updateCommitPolicy() {
+        if (mDurability == Durability.MEMORY) {
+            mGroupCommitter.setPolicy(Math.max(mCommitWindowMillis, Durability.MEMORY_FLUSH_INTERVAL_MILLIS),
+                    Integer.MAX_VALUE);
+        } else {
+            mGroupCommitter.setPolicy(mCommitWindowMillis, mMaxBatchSize);
+        }
+    }
+
+    /**
+     * Hands edits which are waiting for their commit window to the {@link WriteScheduler} right away.
+     */
+    public void flushPendingWrites() {
+        mGroupCommitter.flush(false);
+    }
+
+    /**
+     * The listener is called once per modified key on the writer thread, prefer
+     * {@link #registerChangeListener(ChangeListener, ChangeFilter, Executor)} which batches them.
+     */
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mChangeDispatcher.registerLegacy(listener);
     }
 
     public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
-        synchronized (this) {
-            mListeners.remove(listener);
+        mChangeDispatcher.unregisterLegacy(listener);
+    }
+
+    /**
+     * Calls {@code listener} with one {@link ChangeSet} per written batch of edits which modified a
+     * key matching {@code filter}. Unlike {@link OnSharedPreferenceChangeListener} the listener is
+     * strongly referenced until it is unregistered.
+     *
+     * @param executor where the listener runs, see {@link ChangeExecutors}.
+     */
+    public void registerChangeListener(ChangeListener listener, ChangeFilter filter, Executor executor) {
+        mChangeDispatcher.register(listener, filter, executor);
+    }
+
+    /**
+     * Stops calls to {@code listener}, including change sets already queued on its executor.
+     */
+    public void unregisterChangeListener(ChangeListener listener) {
+        mChangeDispatcher.unregister(listener);
+    }
+
+    /**
+     * Streams the values of {@code key}, see {@link ValueStream}. Values are typed like the getters,
+     * by {@code defValue}: an Integer default reads the key with {@link #getInt(String, int)} and so
+     * on, a String or {@code null} default with {@link #getString(String, String)}.
+     *
+     * @param defValue emitted while the key is not set.
+     */
+    public <T> ValueStream<T> observe(String key, T defValue) {
+        return new ValueStream<>(this, key, defValue);
+    }
+
+    /**
+     * @return sequence of the latest written change, to be passed to
+     * {@link #getChangesSince(long, PreferenceVisitor)} after reading the whole store.
+     * @throws UnsupportedOperationException if the storage keeps no {@link ChangeLog}, see
+     *                                       {@link SharedPreferencesContext#enableChangeLog(int)}.
+     */
+    public long getChangeSequence() {
+        try {
+            return changeLog().lastSequence();
+        } catch (IOException e) {
+            throw readFailed(e);
         }
     }
 
+    /**
+     * Visits every key whose change was written after {@code sequence} once, with its current
+     * value or {@code null} if it was removed. Edits which are applied but not written yet are not
+     * visited, {@link Editor#commit()} them first if they matter.
+     *
+     * @return sequence to pass on the next call, or {@link ChangeLog#PRUNED} if the changes after
+     * {@code sequence} are no longer logged and the whole store has to be read again.
+     * @throws UnsupportedOperationException if the storage keeps no {@link ChangeLog}.
+     */
+    public long getChangesSince(long sequence, PreferenceVisitor visitor) {
+        try {
+            return changeLog().changesSince(sequence, SCAN_PAGE_SIZE, visitor);
+        } catch (IOException e) {
+            throw readFailed(e);
+        }
+    }
+
+    private ChangeLog changeLog() {
+        PreferenceStorage storage = storage();
+        if (!(storage instanceof ChangeLog)) {
+            throw new UnsupportedOperationException(mPreferenceName + " keeps no change log");
+        }
+        return (ChangeLog) storage;
+    }
 
+
+    /**
+     * Copies every preference, prefer {@link #forEach(PreferenceVisitor)} for large stores. The
+     * copy comes from memory if the store is fully loaded and from the table otherwise.
+     *
+     * @return an immutable snapshot of every preference.
+     */
     @Override
     public Map<String, ?> getAll() {
-        Cursor cursor = null;
+        revalidate();
+        if (isFullyLoaded()) {
+            Map<String, Object> all = mCache.snapshot();
+            /*Nothing was evicted between loading the table and taking the snapshot */
+            if (isFullyLoaded()) {
+                return Collections.unmodifiableMap(all);
+            }
+        }
+        final Map<String, Object> scanned = new HashMap<>();
+        forEach(new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                scanned.put(key, value);
+                return true;
+            }
+        });
+        return Collections.unmodifiableMap(scanned);
+    }
+
+    /**
+     * Visits every preference in key order, including applied edits which are not written yet,
+     * without loading the store into memory. The table is read in pages of {@link #SCAN_PAGE_SIZE}
+     * keys and visited entries are not cached. Edits applied while the scan runs may or may not be
+     * visited.
+     */
+    public void forEach(PreferenceVisitor visitor) {
+        scan("", null, SCAN_PAGE_SIZE, visitor);
+    }
+
+    /**
+     * Reads the preferences whose key starts with {@code prefix}, e.g. {@code "feature."}. Only the
+     * keys of that namespace are read from the table.
+     *
+     * @return an immutable snapshot sorted by key.
+     */
+    public SortedMap<String, ?> getByPrefix(String prefix) {
+        return getRange(prefix, prefixEnd(prefix), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads up to {@code limit} preferences in key order, starting at {@code fromKey}. Keys are
+     * ordered by code point, see {@link PreferenceStorage#KEY_ORDER}. To read the following page
+     * pass the last returned key with a {@code '\0'} appended as {@code fromKey}.
+     *
+     * @param fromKey first key of the range, inclusive.
+     * @param toKey   end of the range, exclusive, or {@code null} for no end.
+     * @return an immutable snapshot sorted by key.
+     */
+    public SortedMap<String, ?> getRange(String fromKey, String toKey, final int limit) {
+        final SortedMap<String, Object> range = new TreeMap<>(PreferenceStorage.KEY_ORDER);
+        if (limit > 0) {
+            scan(fromKey, toKey, Math.min(limit, SCAN_PAGE_SIZE), new PreferenceVisitor() {
+                @Override
+                public boolean visit(String key, Object value) {
+                    range.put(key, value);
+                    return range.size() < limit;
+                }
+            });
+        }
+        return Collections.unmodifiableSortedMap(range);
+    }
+
+    /**
+     * @return the smallest key sorting after every key which starts with {@code prefix}, or
+     * {@code null} if there is none.
+     */
+    private static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            end -= Character.charCount(codePoint);
+            if (codePoint < Character.MAX_CODE_POINT) {
+                codePoint++;
+                if (codePoint == Character.MIN_SURROGATE) {
+                    codePoint = Character.MAX_SURROGATE + 1;
+                }
+                return prefix.substring(0, end) + new String(Character.toChars(codePoint));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits the preferences from {@code fromKey} inclusive to {@code toKey} exclusive in key
+     * order. Rows are read from the table {@code pageSize} at a time through the key index, and
+     * edits which are applied but not written yet are merged in.
+     */
+    private void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) {
+        /*An inverted range is empty, like it is for the storage */
+        if (toKey != null && PreferenceStorage.KEY_ORDER.compare(fromKey, toKey) >= 0) {
+            return;
+        }
+        GroupCommitter.Batch unwritten = mGroupCommitter.unwritten();
+        TreeMap<String, Object> unwrittenChanges = new TreeMap<>(PreferenceStorage.KEY_ORDER);
+        unwrittenChanges.putAll(unwritten.getChanges());
+        UnwrittenMerger merger = new UnwrittenMerger((toKey == null ? unwrittenChanges.tailMap(fromKey)
+                : unwrittenChanges.subMap(fromKey, toKey)).entrySet().iterator(), visitor);
+        /*An unwritten clear hides every stored preference */
+        if (!unwritten.isClear()) {
+            try {
+                storage().scan(fromKey, toKey, pageSize, merger);
+            } catch (IOException e) {
+                throw readFailed(e);
+            }
+        }
+        merger.finish();
+    }
+
+    private IllegalStateException readFailed(IOException e) {
+        return new IllegalStateException("Failed to read " + mPreferenceName, e);
+    }
+
+    /**
+     * Reads the whole table into memory with one sequential scan. Afterwards every read is
+     * answered from memory, including reads of keys which don't exist, until the cache has to
+     * evict an entry to stay within its budget, see {@link #setCacheBudget(long)}.
+     */
+    public void loadFully() {
+        storage();
+        revalidate();
+        if (!isFullyLoaded()) {
+            loadAll();
+        }
+    }
+
+    /**
+     * Reads every stored preference into the cache, the storage must be open.
+     */
+    private void loadAll() {
+        long evictionCount = mCache.evictionCount();
+        final long readStamp = readStamp();
         try {
-            String selectAllQuery = "SELECT * FROM " + mPreferenceName;
-            cursor = mSqLiteDatabase.rawQuery(selectAllQuery, null);
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    parseSettingCursor(cursor);
+            mStorage.scan("", null, SCAN_PAGE_SIZE, new PreferenceVisitor() {
+                @Override
+                public boolean visit(String key, Object value) {
+                    cacheRead(key, value, readStamp);
+                    return true;
                 }
+            });
+        } catch (IOException e) {
+            throw readFailed(e);
+        }
+        /*Rows of a batch written meanwhile may have been skipped */
+        if (readStamp == readStamp()) {
+            mLoadedAtEviction = evictionCount;
+        }
+    }
+
+    public boolean isFullyLoaded() {
+        long loadedAtEviction = mLoadedAtEviction;
+        return loadedAtEviction >= 0 && loadedAtEviction == mCache.evictionCount();
+    }
+
+    /**
+     * @return counters of this store since it was created, cheap enough to take periodically and
+     * log or export.
+     */
+    public MetricsSnapshot getMetrics() {
+        return mMetrics.snapshot(mPreferenceName, mCache.size(), mCache.sizeBytes(), mCache.getMaxBytes(),
+                mGroupCommitter.unwritten().size(), mWriteScheduler.getQueueDepth(mPreferenceName));
+    }
+
+    /**
+     * @return number of preferences, including applied edits. Counted from memory if the store is
+     * fully loaded and from the key index of the table otherwise.
+     */
+    public int getKeyCount() {
+        if (isFullyLoaded()) {
+            return mCache.size();
+        }
+        GroupCommitter.Batch unwritten = mGroupCommitter.unwritten();
+        Set<String> keys = new HashSet<>();
+        if (!unwritten.isClear()) {
+            try {
+                keys.addAll(storage().keys());
+            } catch (IOException e) {
+                throw readFailed(e);
+            }
+        }
+        for (Map.Entry<String, Object> change : unwritten.getChanges().entrySet()) {
+            if (change.getValue() == null) {
+                keys.remove(change.getKey());
+            } else {
+                keys.add(change.getKey());
+            }
+        }
+        return keys.size();
+    }
+
+    /**
+     * Sets how much heap the decoded values of this store may take, least recently used values
+     * are evicted beyond it and read from the table again when needed. Defaults to
+     * {@link #DEFAULT_CACHE_BYTES}.
+     */
+    public void setCacheBudget(long maxBytes) {
+        mCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Releases cached values according to {@link ComponentCallbacks2#onTrimMemory(int)} levels,
+     * everything once the process is likely to be killed and half the budget before that.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.getMaxBytes() / 2);
+        }
+    }
+
+    /**
+     * Builds a {@link KeyFilter} over the keys of the table with a scan which reads no values.
+     * Meant for stores too large for {@link #loadFully()}, lookups of keys which don't exist are
+     * then answered without a query.
+     */
+    public void loadKeyFilter() {
+        long invalidations = mInvalidations;
+        List<String> keys;
+        try {
+            keys = storage().keys();
+        } catch (IOException e) {
+            throw readFailed(e);
+        }
+        KeyFilter keyFilter = new KeyFilter(keys.size());
+        mPendingKeyFilter = keyFilter;
+        try {
+            for (String key : keys) {
+                keyFilter.add(key);
+            }
+            /*Applied before the filter was pending and not stored when the keys were read */
+            for (String key : mGroupCommitter.unwritten().getChanges().keySet()) {
+                keyFilter.add(key);
+            }
+            /*Keys read before another process wrote may be missing */
+            if (invalidations == mInvalidations) {
+                mKeyFilter = keyFilter;
             }
         } finally {
-            if (cursor != null) {
-                cursor.close();
+            mPendingKeyFilter = null;
+        }
+    }
+
+    /**
+     * Reads several preferences at once. Keys which are not in memory are read from the storage
+     * together, with one query per few hundred keys instead of one per key.
+     *
+     * @return an immutable map of the keys which are set to their value.
+     */
+    public Map<String, ?> getMany(Collection<String> keys) {
+        Map<String, Object> values = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String key : keys) {
+            mMetrics.mHotKeys.onRead(key);
+            Object value = getValueFromMemory(key);
+            if (value == GroupCommitter.UNCHANGED) {
+                misses.add(key);
+            } else if (value != null) {
+                values.put(key, value);
+            }
+        }
+        if (misses.isEmpty()) {
+            mMetrics.mReadHits.add(keys.size());
+            return Collections.unmodifiableMap(values);
+        }
+        /*A preloading store answers from memory once it is loaded */
+        PreferenceStorage storage = storage();
+        if (isFullyLoaded()) {
+            mMetrics.mReadHits.add(keys.size());
+            for (String key : misses) {
+                Object value = mCache.get(key);
+                if (value != null) {
+                    values.put(key, value);
+                }
             }
+            return Collections.unmodifiableMap(values);
+        }
+        mMetrics.mReadHits.add(keys.size() - misses.size());
+        mMetrics.mReadMisses.add(misses.size());
+        long readStamp = readStamp();
+        Map<String, Object> stored;
+        long start = System.nanoTime();
+        try {
+            stored = storage.getMany(misses);
+        } catch (IOException e) {
+            throw readFailed(e);
         }
-        return mMap;
+        mMetrics.recordBulkQuery(misses.size(), System.nanoTime() - start);
+        for (String key : misses) {
+            Object value = cacheRead(key, stored.get(key), readStamp);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return Collections.unmodifiableMap(values);
     }
 
     public String getString(String key, String defValue) {
-        String value = getValueByKey(key);
+        Object value = getValueByKey(key);
         if (value == null) {
             return defValue;
         }
-        return value;
+        return legacyText(value, "String");
     }
 
+    /**
+     * @return the cached set of {@code key}, which can't be modified. The same instance is
+     * returned until the key changes.
+     */
     @Override
     public Set<String> getStringSet(String key, Set<String> defValues) {
-        String value = getValueByKey(key);
-        Set<String> stringSet = new HashSet<>();
+        Object value = getValueByKey(key);
         if (value == null) {
             return defValues;
         }
-        stringSet.addAll(Arrays.asList(value.split(SEPARATOR)));
+        if (value instanceof Set) {
+            /*Only sets of String are stored, the editor checks their elements */
+            @SuppressWarnings("unchecked")
+            Set<String> stringSet = (Set<String>) value;
+            return stringSet;
+        }
+        String text = legacyText(value, "Set");
+        Set<String> stringSet = splitLegacyStringSet(text);
+        /*Decode a legacy set once, unless the key changed meanwhile */
+        mCache.replace(key, text, stringSet);
         return stringSet;
     }
 
+    /**
+     * Splits a set stored before values were typed, every element was followed by {@link #SEPARATOR}.
+     */
+    private static Set<String> splitLegacyStringSet(String text) {
+        Set<String> stringSet = new HashSet<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf(SEPARATOR, start)) >= 0) {
+            stringSet.add(text.substring(start, end));
+            start = end + SEPARATOR.length();
+        }
+        if (start < text.length()) {
+            stringSet.add(text.substring(start));
+        }
+        return Collections.unmodifiableSet(stringSet);
+    }
+
 
     public boolean getBoolean(String key, boolean defValue) {
-        String value = getValueByKey(key);
+        Object value = getValueByKey(key);
         if (value == null) {
             return defValue;
-        } else {
-            try {
-                return Boolean.parseBoolean(getValueByKey(key));
-            } catch (NumberFormatException e) {
-                throw new ClassCastException(value + "can not cast to Boolean");
-            }
         }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        String text = legacyText(value, "Boolean");
+        boolean parsed = Boolean.parseBoolean(text);
+        cacheLegacyValue(key, text, parsed);
+        return parsed;
     }
 
     @Override
     public boolean contains(String key) {
-        return false;
+        return getValueByKey(key) != null;
     }
 
     @Override
-    public Editor edit() {
+    public EditorImpl edit() {
         return new EditorImpl();
     }
 
 
     public int getInt(String key, int defValue) {
-        String value = getValueByKey(key);
+        Object value = getValueByKey(key);
         if (value == null) {
             return defValue;
-        } else {
-            try {
-                return Integer.parseInt(getValueByKey(key));
-            } catch (NumberFormatException e) {
-                throw new ClassCastException("can not cast to integer");
-            }
         }
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        String text = legacyText(value, "Integer");
+        int parsed;
+        try {
+            parsed = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new ClassCastException("can not cast to integer");
+        }
+        cacheLegacyValue(key, text, parsed);
+        return parsed;
     }
 
     @Override
     public long getLong(String key, long defValue) {
-        String value = getValueByKey(key);
+        Object value = getValueByKey(key);
         if (value == null) {
             return defValue;
-        } else {
-            try {
-                return Long.parseLong(getValueByKey(key));
-            } catch (NumberFormatException e) {
-                throw new ClassCastException("can not cast to Long");
-            }
         }
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        String text = legacyText(value, "Long");
+        long parsed;
+        try {
+            parsed = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new ClassCastException("can not cast to Long");
+        }
+        cacheLegacyValue(key, text, parsed);
+        return parsed;
     }
 
     @Override
     public float getFloat(String key, float defValue) {
-        String value = getValueByKey(key);
+        Object value = getValueByKey(key);
         if (value == null) {
             return defValue;
-        } else {
-            try {
-                return Float.parseFloat(getValueByKey(key));
-            } catch (NumberFormatException e) {
-                throw new ClassCastException("can not cast to Float");
-            }
         }
+        if (value instanceof Float) {
+            return (Float) value;
+        }
+        String text = legacyText(value, "Float");
+        float parsed;
+        try {
+            parsed = Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            throw new ClassCastException("can not cast to Float");
+        }
+        cacheLegacyValue(key, text, parsed);
+        return parsed;
     }
 
+    /**
+     * Values stored before values were typed are kept as the text they were written with.
+     *
+     * @return {@code value} if it is such a text.
+     * @throws ClassCastException if {@code value} is typed and not a String.
+     */
+    private static String legacyText(Object value, String type) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        throw new ClassCastException(value.getClass().getSimpleName() + " can not cast to " + type);
+    }
+
+    /**
+     * Caches the value parsed from a legacy text so later reads of {@code key} don't parse it
+     * again, unless the key changed meanwhile. Only values which print as the text they were
+     * parsed from, so no other reading of the text is lost.
+     */
+    private void cacheLegacyValue(String key, String text, Object parsed) {
+        if (text.equals(String.valueOf(parsed))) {
+            mCache.replace(key, text, parsed);
+        }
+    }
 
-    private String getValueByKey(String key) {
-        if (mMap.containsKey(key)) {
-            return mMap.get(key);
+    /**
+     * @return the value of {@code key} read by the getter matching the type of {@code defValue}.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getTyped(String key, T defValue) {
+        Object value;
+        if (defValue instanceof Integer) {
+            value = getInt(key, (Integer) defValue);
+        } else if (defValue instanceof Long) {
+            value = getLong(key, (Long) defValue);
+        } else if (defValue instanceof Float) {
+            value = getFloat(key, (Float) defValue);
+        } else if (defValue instanceof Boolean) {
+            value = getBoolean(key, (Boolean) defValue);
+        } else if (defValue instanceof Set) {
+            value = getStringSet(key, (Set<String>) defValue);
         } else {
-            return getValueFromDB(key);
+            value = getString(key, (String) defValue);
+        }
+        return (T) value;
+    }
+
+    Object getValueByKey(String key) {
+        mMetrics.mHotKeys.onRead(key);
+        Object value = getValueFromMemory(key);
+        if (value != GroupCommitter.UNCHANGED) {
+            mMetrics.mReadHits.increment();
+            return value;
+        }
+        /*A preloading store answers from memory once it is loaded */
+        storage();
+        if (isFullyLoaded()) {
+            mMetrics.mReadHits.increment();
+            return mCache.get(key);
         }
+        mMetrics.mReadMisses.increment();
+        return getValueFromDB(key);
     }
 
-    private boolean checkIfKeyAlreadyExists(String key) {
+    /**
+     * @return the value of {@code key} if it is known without reading the storage, otherwise
+     * {@link GroupCommitter#UNCHANGED}.
+     */
+    private Object getValueFromMemory(String key) {
+        revalidate();
+        Object value = mCache.get(key);
+        if (value != null || isFullyLoaded() || isKnownAbsent(key)) {
+            return value;
+        }
+        /*Applied values may have been evicted before their batch is written */
+        return mGroupCommitter.unwrittenValue(key);
+    }
 
-        Cursor cursor = null;
+    /**
+     * @return the current value of {@code key}, read from the storage and cached.
+     */
+    public Object getValueFromDB(String key) {
+        PreferenceStorage storage = storage();
+        long readStamp = readStamp();
+        Object value;
+        long start = System.nanoTime();
         try {
-            cursor = mSqLiteDatabase.query(mPreferenceName, PreferencesContent.PREFERENCES_PROJECTION,
-                    PreferencesContent.SELECTION_VAI_KEY, new String[]{key}, null, null, null);
-            if (cursor != null && cursor.moveToNext()) {
-                return true;
+            value = storage.get(key);
+        } catch (IOException e) {
+            throw readFailed(e);
+        }
+        mMetrics.recordQuery(key, System.nanoTime() - start);
+        return cacheRead(key, value, readStamp);
+    }
+
+    /**
+     * Drops every cached value if another process wrote the storage since they were read.
+     */
+    private void revalidate() {
+        if (!mVersionRead) {
+            return;
+        }
+        int dataVersion = mVersionedStorage.dataVersion();
+        if (dataVersion == mDataVersion) {
+            return;
+        }
+        synchronized (mGroupCommitter) {
+            if (dataVersion == mDataVersion) {
+                return;
             }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+            mDataVersion = dataVersion;
+            mInvalidations++;
+            mCache.clear();
+            mLoadedAtEviction = -1;
+            mKeyFilter = null;
+            synchronized (mAbsentKeys) {
+                mAbsentKeys.clear();
             }
         }
-        return false;
     }
 
-    public String getValueFromDB(String key) {
-        updateMapWithValueByKey(key);
-        return mMap.get(key);
+    /**
+     * @return a stamp which changes whenever a value read from the storage afterwards may be out
+     * of date: a batch of this store was written or another process wrote the storage.
+     */
+    private long readStamp() {
+        return mGroupCommitter.writtenBatches() + mInvalidations;
     }
 
-    private void updateMapWithValueByKey(String key) {
-        Cursor cursor = null;
-        try {
-            cursor = mSqLiteDatabase.query(mPreferenceName, PreferencesContent.PREFERENCES_PROJECTION,
-                    PreferencesContent.SELECTION_VAI_KEY, new String[]{key}, null, null, null);
-            if (cursor != null && cursor.moveToNext()) {
-                parseSettingCursor(cursor);
+    private boolean isKnownAbsent(String key) {
+        KeyFilter keyFilter = mKeyFilter;
+        if (keyFilter != null && !keyFilter.mightContain(key)) {
+            return true;
+        }
+        synchronized (mAbsentKeys) {
+            return mAbsentKeys.get(key) != null;
+        }
+    }
+
+    /**
+     * Keeps the absent key caches in line with a key which is about to be stored.
+     */
+    private void onKeyStored(String key) {
+        synchronized (mAbsentKeys) {
+            mAbsentKeys.remove(key);
+        }
+        KeyFilter keyFilter = mKeyFilter;
+        if (keyFilter != null) {
+            keyFilter.add(key);
+        }
+        keyFilter = mPendingKeyFilter;
+        if (keyFilter != null) {
+            keyFilter.add(key);
+        }
+    }
+
+    /**
+     * Caches what the storage holds for {@code key}, or that it holds nothing.
+     *
+     * @param value     value read from the storage, {@code null} if the key is missing.
+     * @param readStamp {@link #readStamp()} before the storage was read.
+     * @return the current value of {@code key}.
+     */
+    private Object cacheRead(String key, Object value, long readStamp) {
+        /*Applies update the cache under the same lock */
+        synchronized (mGroupCommitter) {
+            /*Applied values win over the storage until their batch is written */
+            Object unwrittenValue = mGroupCommitter.unwrittenValue(key);
+            if (unwrittenValue != GroupCommitter.UNCHANGED) {
+                return unwrittenValue;
             }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+            /*A read from before the latest write may be stale, it is returned but not cached */
+            if (readStamp == readStamp()) {
+                if (value != null) {
+                    mCache.put(key, value);
+                } else {
+                    synchronized (mAbsentKeys) {
+                        mAbsentKeys.put(key, Boolean.TRUE);
+                    }
+                }
             }
         }
-
+        return value;
     }
 
-    private void parseSettingCursor(Cursor cursor) {
-        mMap.put(cursor.getString(0), cursor.getString(1));
+    /**
+     * Merges the unwritten edits of a key range into the stored preferences of that range, both
+     * visited in key order.
+     */
+    private static class UnwrittenMerger implements PreferenceVisitor {
+
+        private final Iterator<Map.Entry<String, Object>> mChanges;
+
+        private final PreferenceVisitor mVisitor;
+
+        private Map.Entry<String, Object> mChange;
+
+        private boolean mStopped;
+
+        UnwrittenMerger(Iterator<Map.Entry<String, Object>> changes, PreferenceVisitor visitor) {
+            mChanges = changes;
+            mVisitor = visitor;
+            mChange = changes.hasNext() ? changes.next() : null;
+        }
+
+        @Override
+        public boolean visit(String key, Object value) {
+            /*Unwritten keys sorting before this one are not stored yet */
+            while (mChange != null && PreferenceStorage.KEY_ORDER.compare(mChange.getKey(), key) < 0) {
+                if (!visitChange()) {
+                    return false;
+                }
+            }
+            if (mChange != null && mChange.getKey().equals(key)) {
+                return visitChange();
+            }
+            mStopped = !mVisitor.visit(key, value);
+            return !mStopped;
+        }
+
+        /**
+         * Visits the unwritten keys sorting after every stored one.
+         */
+        void finish() {
+            while (!mStopped && mChange != null) {
+                visitChange();
+            }
+        }
+
+        /**
+         * @return false if the visitor stopped the scan, removals are skipped.
+         */
+        private boolean visitChange() {
+            Map.Entry<String, Object> change = mChange;
+            mChange = mChanges.hasNext() ? mChanges.next() : null;
+            mStopped = change.getValue() != null && !mVisitor.visit(change.getKey(), change.getValue());
+            return !mStopped;
+        }
     }
 
     public class EditorImpl implements Editor {
 
+        private final Map<String, Object> mModified = new HashMap<>();
+
+        private boolean mClear;
+
         public Editor putBoolean(String key, boolean value) {
-            saveSetting(key, String.valueOf(value));
+            saveSetting(key, value);
             return this;
         }
 
         @Override
         public Editor remove(String key) {
-            mModifiedMap.put(key, null);
+            synchronized (this) {
+                mModified.put(key, null);
+            }
             return this;
         }
 
         @Override
         public Editor clear() {
-            mMap.clear();
-            mModifiedMap.clear();
+            synchronized (this) {
+                mClear = true;
+            }
             return this;
         }
 
         public Editor putInt(String key, int value) {
-            saveSetting(key, String.valueOf(value));
+            saveSetting(key, value);
             return this;
         }
 
         @Override
         public Editor putLong(String key, long value) {
-            saveSetting(key, String.valueOf(value));
+            saveSetting(key, value);
             return this;
         }
 
         @Override
         public Editor putFloat(String key, float value) {
-            saveSetting(key, String.valueOf(value));
+            saveSetting(key, value);
             return this;
         }
 
@@ -269,101 +1045,161 @@ public class SharedPreferencesImpl implements SharedPreferences {
             return this;
         }
 
+        /**
+         * @throws IllegalArgumentException if {@code values} contains {@code null}.
+         */
         @Override
         public Editor putStringSet(String key, Set<String> values) {
-            StringBuilder builder = new StringBuilder();
-            for (String s : values) {
-                builder.append(s);
-                builder.append(SEPARATOR);
+            saveSetting(key, values == null ? null : copyStringSet(key, values));
+            return this;
+        }
+
+        /**
+         * Puts every entry of {@code values} under one lock, they are written in the batch of
+         * this editor like separate puts. A {@code null} value removes the key.
+         *
+         * @throws IllegalArgumentException if a value is not String, Integer, Long, Float, Boolean
+         *                                  or a Set of non-null Strings, nothing is put then.
+         */
+        public Editor putAll(Map<String, ?> values) {
+            Map<String, Object> settings = new HashMap<>(values.size());
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Set) {
+                    value = copyStringSet(entry.getKey(), (Set<?>) value);
+                } else if (value != null && !(value instanceof String || value instanceof Integer
+                        || value instanceof Long || value instanceof Float || value instanceof Boolean)) {
+                    throw new IllegalArgumentException("Unsupported type " + value.getClass().getSimpleName()
+                            + " of " + entry.getKey());
+                }
+                settings.put(entry.getKey(), value);
+            }
+            synchronized (this) {
+                mModified.putAll(settings);
             }
-            saveSetting(key, String.valueOf(builder.toString()));
             return this;
         }
 
-        private void saveSetting(String key, String value) {
-            mModifiedMap.put(key, value);
-            mMap.put(key, value);
+        /**
+         * @return an unmodifiable copy of {@code values}, checked before the writer thread encodes it.
+         * @throws IllegalArgumentException if an element is not a String.
+         */
+        private Set<String> copyStringSet(String key, Set<?> values) {
+            Set<String> copy = new HashSet<>(values.size());
+            for (Object element : values) {
+                if (!(element instanceof String)) {
+                    throw new IllegalArgumentException("Set of " + key + " holds "
+                            + (element == null ? "null" : element.getClass().getSimpleName()) + ", only Strings are stored");
+                }
+                copy.add((String) element);
+            }
+            return Collections.unmodifiableSet(copy);
+        }
+
+        private void saveSetting(String key, Object value) {
+            synchronized (this) {
+                mModified.put(key, value);
+            }
         }
 
         @Override
         public boolean commit() {
-            throw new UnsupportedOperationException("Commit is not supported");
+            GroupCommitter.Batch batch = enqueueEdits();
+            if (getDurability() == Durability.MEMORY) {
+                return true;
+            }
+            if (Thread.currentThread() == mWriterThread) {
+                /*Called by a listener, the writer can't wait for itself so the batch is written right here */
+                mCommitTask.run();
+            } else {
+                mGroupCommitter.flush(true);
+            }
+            return batch.await();
         }
 
         @Override
         public void apply() {
-            CommitPreferenceAsyncTask asyncTask = new CommitPreferenceAsyncTask();
-            asyncTask.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+            enqueueEdits();
         }
-    }
-
-    private class CommitPreferenceAsyncTask extends AsyncTask<Void, Void, Void> {
 
-        @Override
-        protected Void doInBackground(Void... params) {
-            mSqLiteDatabase.beginTransaction();
-            for (Map.Entry<String, String> entry : mModifiedMap.entrySet()) {
-                /*Add key to modified key */
-                mModifiedKeys.add(entry.getKey());
-                /*if map contains key mean we have to update or delete*/
-                String key = entry.getKey();
-                if (checkIfKeyAlreadyExists(key)) {
-                    /*If value of any key is missing we are treating it as removed */
+        private GroupCommitter.Batch enqueueEdits() {
+            Map<String, Object> modified;
+            boolean clear;
+            synchronized (this) {
+                modified = new HashMap<>(mModified);
+                clear = mClear;
+                mModified.clear();
+                mClear = false;
+            }
+            /*Memory and the pending batch are updated together so both see applies in the same order */
+            synchronized (mGroupCommitter) {
+                if (clear) {
+                    mCache.clear();
+                    /*The cleared table is known to be empty */
+                    mLoadedAtEviction = mCache.evictionCount();
+                }
+                for (Map.Entry<String, Object> entry : modified.entrySet()) {
                     if (entry.getValue() == null) {
-                        Log.d(getClass().getSimpleName(), "Delete operations");
-                        mSqLiteDatabase.delete(mPreferenceName, PreferencesContent.SELECTION_VAI_KEY, new String[]{entry.getKey()});
-                        mMap.remove(entry.getKey());
+                        mCache.remove(entry.getKey());
                     } else {
-                        Log.d(getClass().getSimpleName(), "update operations");
-                        ContentValues contentValues = new ContentValues();
-                        contentValues.put(PreferencesContent.COLUMN_NAME_KEY, entry.getKey());
-                        contentValues.put(PreferencesContent.COLUMN_NAME_VALUE, entry.getValue());
-                        mSqLiteDatabase.update(mPreferenceName, contentValues, PreferencesContent.SELECTION_VAI_KEY,
-                                new String[]{entry.getKey()});
-                        mMap.put(entry.getKey(), entry.getValue());
-                    }
-                } else {
-                    Log.d(getClass().getSimpleName(), "new operations");
-                    ContentValues contentValues = new ContentValues();
-                    contentValues.put(PreferencesContent.COLUMN_NAME_KEY, entry.getKey());
-                    contentValues.put(PreferencesContent.COLUMN_NAME_VALUE, entry.getValue());
-                    mSqLiteDatabase.insert(mPreferenceName, "foo", contentValues);
-                    mMap.put(entry.getKey(), entry.getValue());
-                    try {
-                        JSONObject jsonObject =  new JSONObject("");
-                        JSONArray jsonArray = jsonObject.getJSONArray("Employee");
-                        for (int i = 0; i < jsonArray.length(); i++) {
-                            JSONObject empObject = jsonArray.getJSONObject(i);
-                            empObject.getInt("id");
-                            empObject.getString("name");
-                            empObject.getInt("salary");
-                        }
-
-                    } catch (JSONException e) {
-                        e.printStackTrace();
+                        onKeyStored(entry.getKey());
+                        mCache.put(entry.getKey(), entry.getValue());
                     }
-
-
                 }
+                return mGroupCommitter.enqueue(modified, clear);
             }
-            mSqLiteDatabase.endTransaction();
-            notifyListeners();
-            return null;
         }
     }
 
-    private void notifyListeners() {
-        if (mModifiedKeys.size() == 0) {
-            return;
+    private class CommitPreferenceTask implements Runnable {
+
+        @Override
+        public void run() {
+            GroupCommitter.Batch batch = mGroupCommitter.drain();
+            if (batch == null) {
+                return;
+            }
+            Thread callerWriterThread = mWriterThread;
+            mWriterThread = Thread.currentThread();
+            try {
+                boolean success = false;
+                try {
+                    success = write(batch);
+                } finally {
+                    /*Releases commits waiting for the batch even if writing threw */
+                    mGroupCommitter.onWritten(success);
+                }
+                if (success) {
+                    Log.d(getClass().getSimpleName(), "Committed " + batch.size() + " keys");
+                    mChangeDispatcher.dispatch(batch.getChanges().keySet(), batch.isClear());
+                }
+            } finally {
+                mWriterThread = callerWriterThread;
+            }
         }
-        for (String key : mModifiedKeys) {
-            for (OnSharedPreferenceChangeListener listener : mListeners.keySet()) {
-                if (listener != null) {
-                    listener.onSharedPreferenceChanged(SharedPreferencesImpl.this, key);
+
+        private boolean write(GroupCommitter.Batch batch) {
+            long start = System.nanoTime();
+            try {
+                PreferenceStorage storage = storage();
+                storage.write(batch.getChanges(), batch.isClear(), getDurability());
+                mMetrics.recordCommit(batch.size(), System.nanoTime() - start);
+                if (mVersionedStorage != null) {
+                    synchronized (mGroupCommitter) {
+                        /*The cache already holds this write, it stays valid unless another process wrote as well */
+                        if (mVersionedStorage.lastWrittenVersion() == mDataVersion + 1) {
+                            mDataVersion++;
+                        }
+                    }
                 }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                /*Runtime exceptions come from opening, encoding or the database, e.g. SQLiteException */
+                Log.e(getClass().getSimpleName(), "Commit of " + batch.size() + " keys failed", e);
+                mMetrics.mCommitFailures.increment();
+                return false;
             }
         }
-        mModifiedKeys.clear();
     }
 
 }
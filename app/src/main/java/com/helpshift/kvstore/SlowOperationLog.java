@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest {@link #CAPACITY} operations of a store which took longer than a frame,
+ * {@link #THRESHOLD_NANOS}, oldest dropped first.
+ */
+class SlowOperationLog {
+
+    static final long THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    static final int CAPACITY = 32;
+
+    /*Guarded by this, a ring whose next slot to write is mNext */
+    private final MetricsSnapshot.SlowOperation[] mOperations = new MetricsSnapshot.SlowOperation[CAPACITY];
+
+    private int mNext;
+
+    /**
+     * @param subject what the operation worked on, e.g. a key, built only if the operation was slow.
+     */
+    void record(String operation, Object subject, long durationNanos) {
+        if (durationNanos < THRESHOLD_NANOS) {
+            return;
+        }
+        MetricsSnapshot.SlowOperation slowOperation = new MetricsSnapshot.SlowOperation(operation,
+                String.valueOf(subject), durationNanos, System.currentTimeMillis());
+        synchronized (this) {
+            mOperations[mNext] = slowOperation;
+            mNext = (mNext + 1) % CAPACITY;
+        }
+    }
+
+    /**
+     * @return the logged operations, latest first.
+     */
+    synchronized List<MetricsSnapshot.SlowOperation> recent() {
+        List<MetricsSnapshot.SlowOperation> recent = new ArrayList<>(CAPACITY);
+        for (int i = 1; i <= CAPACITY; i++) {
+            MetricsSnapshot.SlowOperation slowOperation = mOperations[(mNext - i + CAPACITY) % CAPACITY];
+            if (slowOperation == null) {
+                break;
+            }
+            recent.add(slowOperation);
+        }
+        return recent;
+    }
+}
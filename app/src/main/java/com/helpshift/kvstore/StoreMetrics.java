@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+/**
+ * Counters a {@link SharedPreferencesImpl} updates as it serves reads and writes. Updating one
+ * takes an atomic add on a counter other threads rarely touch, so they stay on in production.
+ */
+class StoreMetrics {
+
+    /*Hot keys listed in a snapshot */
+    static final int HOT_KEY_LIMIT = 10;
+
+    final StripedCounter mReadHits = new StripedCounter();
+
+    final StripedCounter mReadMisses = new StripedCounter();
+
+    final HotKeys mHotKeys = new HotKeys();
+
+    final Histogram mQueryNanos = new Histogram();
+
+    final Histogram mCommitBatchSizes = new Histogram();
+
+    final Histogram mCommitNanos = new Histogram();
+
+    final StripedCounter mCommitFailures = new StripedCounter();
+
+    final Histogram mDispatchNanos = new Histogram();
+
+    final SlowOperationLog mSlowOperations = new SlowOperationLog();
+
+    void recordQuery(String key, long nanos) {
+        mQueryNanos.record(nanos);
+        mSlowOperations.record("get", key, nanos);
+    }
+
+    void recordBulkQuery(int keyCount, long nanos) {
+        mQueryNanos.record(nanos);
+        mSlowOperations.record("getMany", keyCount, nanos);
+    }
+
+    void recordCommit(int keyCount, long nanos) {
+        mCommitNanos.record(nanos);
+        mCommitBatchSizes.record(keyCount);
+        mSlowOperations.record("commit", keyCount, nanos);
+    }
+
+    /**
+     * @param listener the listener which handled the change set, {@code null} if it was collected.
+     */
+    void recordDispatch(Object listener, long nanos) {
+        mDispatchNanos.record(nanos);
+        mSlowOperations.record("dispatch", listener == null ? null : listener.getClass().getName(), nanos);
+    }
+
+    MetricsSnapshot snapshot(String preferenceName, int cacheEntries, long cacheBytes, long cacheBudgetBytes,
+                             int pendingKeys, int writeQueueDepth) {
+        return new MetricsSnapshot(preferenceName, mReadHits.sum(), mReadMisses.sum(), mHotKeys.top(HOT_KEY_LIMIT),
+                mQueryNanos.snapshot(), mCommitBatchSizes.snapshot(), mCommitNanos.snapshot(), mCommitFailures.sum(),
+                mDispatchNanos.snapshot(), mSlowOperations.recent(), cacheEntries, cacheBytes, cacheBudgetBytes,
+                pendingKeys, writeQueueDepth);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which threads add to without contending on one memory location. Each thread adds to
+ * one of a few cells picked by its id, and cells are a cache line apart so cores don't share them
+ * either. Reading sums the cells, which is slower than adding and may miss concurrent adds.
+ */
+class StripedCounter {
+
+    /*Longs per cell, 128 bytes keep neighbouring cells off each other's cache line */
+    private static final int PADDING = 16;
+
+    private static final int CELLS = cellCount();
+
+    private final AtomicLongArray mCells = new AtomicLongArray(CELLS * PADDING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long delta) {
+        mCells.addAndGet(cell(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += PADDING) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        /*Thread ids are sequential, the multiplication spreads them over the high bits */
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (CELLS - 1)) * PADDING;
+    }
+
+    /**
+     * @return a power of two at least the number of processors, at most 16.
+     */
+    private static int cellCount() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        int cells = 1;
+        while (cells < processors) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of decoded preference values, bounded by an estimate of the heap its entries take.
+ * Evicted entries are read from the table again on their next lookup.
+ * <p>
+ * Lookups take no lock, they read a concurrent map and mark the entry as referenced. Changes are
+ * made under the lock of the cache, where entries beyond the budget are evicted with CLOCK, an
+ * approximation of least recently used: a hand sweeps a ring of the entries, clearing the mark of
+ * those it passes and evicting the first one not referenced since it last passed.
+ */
+class ValueCache {
+
+    /*Map entry, key object and boxed value headers */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final int STRING_OVERHEAD = 40;
+
+    /*Changed under the lock of this */
+    private final ConcurrentHashMap<String, Node> mEntries = new ConcurrentHashMap<>();
+
+    /*Guarded by this, next entry the sweep looks at, new entries are linked in just behind it */
+    private Node mHand;
+
+    private volatile long mMaxBytes;
+
+    private volatile long mBytes;
+
+    private volatile long mEvictionCount;
+
+    ValueCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    Object get(String key) {
+        Node node = mEntries.get(key);
+        if (node == null) {
+            return null;
+        }
+        /*Only written if unset, hits on a marked entry don't write to shared memory */
+        if (!node.mReferenced) {
+            node.mReferenced = true;
+        }
+        return node.mValue;
+    }
+
+    synchronized void put(String key, Object value) {
+        int size = sizeOf(key, value);
+        Node node = mEntries.get(key);
+        if (node == null) {
+            node = new Node(key, value, size);
+            link(node);
+            mEntries.put(key, node);
+            mBytes += size;
+        } else {
+            node.mValue = value;
+            mBytes += size - node.mSize;
+            node.mSize = size;
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Replaces the value of {@code key} only if it is still {@code oldValue}.
+     */
+    synchronized void replace(String key, Object oldValue, Object newValue) {
+        Node node = mEntries.get(key);
+        if (node != null && node.mValue == oldValue) {
+            put(key, newValue);
+        }
+    }
+
+    synchronized void remove(String key) {
+        Node node = mEntries.remove(key);
+        if (node != null) {
+            unlink(node);
+            mBytes -= node.mSize;
+        }
+    }
+
+    /**
+     * Removes every entry without counting them as evicted.
+     */
+    synchronized void clear() {
+        mEntries.clear();
+        mHand = null;
+        mBytes = 0;
+    }
+
+    /**
+     * @return a copy of the cached entries.
+     */
+    synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>(mEntries.size() * 4 / 3 + 1);
+        for (Node node : mEntries.values()) {
+            snapshot.put(node.mKey, node.mValue);
+        }
+        return snapshot;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Evicts entries not referenced lately until the cache takes at most {@code maxBytes}, the
+     * budget itself stays as it is.
+     */
+    synchronized void trimToSize(long maxBytes) {
+        /*Ends within two turns of the ring, the first one clears every mark */
+        while (mBytes > maxBytes && mHand != null) {
+            Node node = mHand;
+            if (node.mReferenced) {
+                node.mReferenced = false;
+                mHand = node.mNext;
+            } else {
+                mEntries.remove(node.mKey);
+                unlink(node);
+                mBytes -= node.mSize;
+                mEvictionCount++;
+            }
+        }
+    }
+
+    /**
+     * @return number of entries evicted so far, it only grows.
+     */
+    long evictionCount() {
+        return mEvictionCount;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    long sizeBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Links {@code node} just behind the hand, so it is the last one the sweep looks at.
+     */
+    private void link(Node node) {
+        if (mHand == null) {
+            node.mPrevious = node;
+            node.mNext = node;
+            mHand = node;
+        } else {
+            node.mNext = mHand;
+            node.mPrevious = mHand.mPrevious;
+            mHand.mPrevious.mNext = node;
+            mHand.mPrevious = node;
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.mNext == node) {
+            mHand = null;
+        } else {
+            node.mPrevious.mNext = node.mNext;
+            node.mNext.mPrevious = node.mPrevious;
+            if (mHand == node) {
+                mHand = node.mNext;
+            }
+        }
+        node.mPrevious = null;
+        node.mNext = null;
+    }
+
+    static int sizeOf(String key, Object value) {
+        int size = ENTRY_OVERHEAD + sizeOf(key);
+        if (value instanceof String) {
+            size += sizeOf((String) value);
+        } else if (value instanceof Set) {
+            for (Object element : (Set<?>) value) {
+                size += ENTRY_OVERHEAD + sizeOf((String) element);
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(String value) {
+        return STRING_OVERHEAD + 2 * value.length();
+    }
+
+    private static class Node {
+
+        final String mKey;
+
+        volatile Object mValue;
+
+        /*Set by lookups without a lock, a lost write only makes the entry look older than it is */
+        boolean mReferenced;
+
+        /*Guarded by the cache */
+        int mSize;
+
+        Node mPrevious;
+
+        Node mNext;
+
+        Node(String key, Object value, int size) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+        }
+    }
+}
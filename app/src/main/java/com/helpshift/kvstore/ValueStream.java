@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helpshift.kvstore;
+
+import android.content.SharedPreferences;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Values of a single key, see {@link SharedPreferencesImpl#observe(String, Object)}.
+ * <p>
+ * A subscriber gets the current value right away and afterwards each value which differs from
+ * the last one it got. Values are read when the subscriber's executor gets to them rather than
+ * when they are written, so a subscriber which can't keep up skips intermediate values instead of
+ * queueing them: a key rewritten a thousand times while the executor is busy yields one value,
+ * the latest.
+ */
+public final class ValueStream<T> {
+
+    private final SharedPreferencesImpl mSharedPreferences;
+
+    private final String mKey;
+
+    private final T mDefValue;
+
+    ValueStream(SharedPreferencesImpl sharedPreferences, String key, T defValue) {
+        mSharedPreferences = sharedPreferences;
+        mKey = key;
+        mDefValue = defValue;
+    }
+
+    /**
+     * Keeps {@code observer} referenced until the returned subscription is cancelled.
+     *
+     * @param executor where {@code observer} runs, see {@link ChangeExecutors}. Values are read on
+     *                 it too, which may touch the database if the key is not cached.
+     */
+    public Subscription subscribe(ValueObserver<? super T> observer, Executor executor) {
+        StreamSubscription subscription = new StreamSubscription(observer);
+        /*Registered first, so no change between reading the current value and listening is missed */
+        mSharedPreferences.registerChangeListener(subscription, ChangeFilter.keys(mKey), executor);
+        executor.execute(subscription);
+        return subscription;
+    }
+
+    /**
+     * Handle to stop a {@link ValueObserver}.
+     */
+    public interface Subscription {
+
+        /**
+         * Stops calls to the observer, including values already queued on its executor.
+         */
+        void cancel();
+    }
+
+    private final class StreamSubscription implements Subscription, ChangeListener, Runnable {
+
+        private final ValueObserver<? super T> mObserver;
+
+        private volatile boolean mCancelled;
+
+        /*Guarded by this */
+        private boolean mEmitted;
+
+        private T mLastValue;
+
+        StreamSubscription(ValueObserver<? super T> observer) {
+            mObserver = observer;
+        }
+
+        @Override
+        public void run() {
+            emitLatest();
+        }
+
+        @Override
+        public void onPreferencesChanged(SharedPreferences sharedPreferences, ChangeSet changeSet) {
+            emitLatest();
+        }
+
+        private synchronized void emitLatest() {
+            if (mCancelled) {
+                return;
+            }
+            T value = mSharedPreferences.getTyped(mKey, mDefValue);
+            if (mEmitted && (value == null ? mLastValue == null : value.equals(mLastValue))) {
+                return;
+            }
+            mEmitted = true;
+            mLastValue = value;
+            mObserver.onValue(value);
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            mSharedPreferences.unregisterChangeListener(this);
+        }
+    }
+}
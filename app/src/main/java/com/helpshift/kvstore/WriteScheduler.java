@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+/**
+ * Runs the database writes of preference stores. Tasks of one store run one at a time, higher
+ * priority first and in submission order within a priority. Tasks of different stores are
+ * independent of each other.
+ */
+public interface WriteScheduler {
+
+    int PRIORITY_LOW = 0;
+
+    int PRIORITY_NORMAL = 5;
+
+    int PRIORITY_HIGH = 10;
+
+    /**
+     * Queues {@code task} on the writer of {@code preferenceName}. Blocks while that store already
+     * has as many tasks waiting as its queue allows.
+     */
+    void execute(String preferenceName, int priority, Runnable task);
+
+    /**
+     * @return number of tasks of {@code preferenceName} waiting to run.
+     */
+    int getQueueDepth(String preferenceName);
+
+    /**
+     * Waits until every queued task has run.
+     *
+     * @return false if tasks were still waiting when {@code timeoutMillis} elapsed.
+     */
+    boolean drain(long timeoutMillis) throws InterruptedException;
+}
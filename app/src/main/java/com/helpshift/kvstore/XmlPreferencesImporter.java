@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves preferences written by the framework's {@link android.content.SharedPreferences} into this
+ * store. Each {@code shared_prefs/<name>.xml} file is read with a pull parser and its entries are
+ * committed to the preferences 'name' in batches of {@link #DEFAULT_BATCH_SIZE}, so only one batch
+ * is held in memory whatever the size of the file. Types are kept: {@code <int>} becomes an Integer,
+ * {@code <set>} a Set of String and so on.
+ * <p>
+ * The number of committed entries is recorded after every batch. An import which was interrupted
+ * skips them when it runs again, unless the XML file changed meanwhile. A file is deleted once it
+ * is imported completely.
+ */
+public class XmlPreferencesImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String TAG = "XmlPreferencesImporter";
+
+    private static final String XML_SUFFIX = ".xml";
+
+    /**
+     * Informed on the importing thread after each committed batch.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param importedEntries entries of the file committed so far, including those of an earlier
+         *                        interrupted import.
+         * @param bytesRead       bytes of the file parsed so far.
+         * @param totalBytes      size of the file.
+         */
+        void onProgress(String preferenceName, int importedEntries, long bytesRead, long totalBytes);
+    }
+
+    private final Context mContext;
+
+    private final SharedPreferencesContext mPreferencesContext;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    private ProgressListener mProgressListener;
+
+    public XmlPreferencesImporter(Context context) {
+        mContext = context.getApplicationContext();
+        mPreferencesContext = SharedPreferencesContext.getInstance(context);
+    }
+
+    /**
+     * @param batchSize entries committed per transaction.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        }
+        mBatchSize = batchSize;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        mProgressListener = progressListener;
+    }
+
+    /**
+     * Imports every XML file of the app's {@code shared_prefs} directory. Meant to run once on a
+     * background thread, e.g. after an update replacing the framework's preferences.
+     *
+     * @return names of the imported preferences.
+     */
+    public List<String> importAll() throws IOException {
+        File[] files = new File(mContext.getApplicationInfo().dataDir, "shared_prefs").listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<String> imported = new ArrayList<>();
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(XML_SUFFIX)) {
+                String preferenceName = fileName.substring(0, fileName.length() - XML_SUFFIX.length());
+                importFile(file, preferenceName);
+                imported.add(preferenceName);
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Imports one XML file into the preferences 'preferenceName', continuing an earlier import of
+     * it which was interrupted.
+     */
+    public void importFile(File xmlFile, String preferenceName) throws IOException {
+        SharedPreferencesImpl sharedPreferences = (SharedPreferencesImpl) mPreferencesContext.getSharedPreference(
+                mContext, preferenceName);
+        File progressFile = new File(mContext.getFilesDir(), "app_settings_" + preferenceName + ".import");
+        long totalBytes = xmlFile.length();
+        String fileVersion = totalBytes + " " + xmlFile.lastModified();
+        int skipped = readProgress(progressFile, fileVersion);
+
+        CountingInputStream in = new CountingInputStream(new BufferedInputStream(new FileInputStream(xmlFile)));
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(in, null);
+            Map<String, Object> batch = new HashMap<>();
+            int entries = 0;
+            int event = parser.next();
+            while (event != XmlPullParser.END_DOCUMENT) {
+                /*Entries are the children of <map> */
+                if (event == XmlPullParser.START_TAG && parser.getDepth() == 2) {
+                    String key = parser.getAttributeValue(null, "name");
+                    Object value = readValue(parser);
+                    if (entries++ >= skipped && key != null && value != null) {
+                        batch.put(key, value);
+                    }
+                    if (batch.size() >= mBatchSize) {
+                        commit(sharedPreferences, batch, entries, progressFile, fileVersion);
+                        reportProgress(preferenceName, entries, in.mCount, totalBytes);
+                    }
+                }
+                event = parser.next();
+            }
+            if (!batch.isEmpty()) {
+                commit(sharedPreferences, batch, entries, progressFile, fileVersion);
+            }
+            reportProgress(preferenceName, entries, totalBytes, totalBytes);
+        } catch (XmlPullParserException e) {
+            throw new IOException("Malformed preferences " + xmlFile, e);
+        } finally {
+            in.close();
+        }
+        if (!xmlFile.delete()) {
+            throw new IOException("Can't delete imported " + xmlFile);
+        }
+        progressFile.delete();
+    }
+
+    /**
+     * Reads the value of the entry whose start tag the parser is on, leaving it on the end tag.
+     *
+     * @return the value or {@code null} if it has no type preferences can hold.
+     */
+    private static Object readValue(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String type = parser.getName();
+        switch (type) {
+            case "string":
+                return parser.nextText();
+            case "int":
+                return Integer.valueOf(attributeValue(parser));
+            case "long":
+                return Long.valueOf(attributeValue(parser));
+            case "float":
+                return Float.valueOf(attributeValue(parser));
+            case "boolean":
+                return Boolean.valueOf(attributeValue(parser));
+            case "set":
+                Set<String> set = new HashSet<>();
+                while (parser.nextTag() == XmlPullParser.START_TAG) {
+                    set.add(parser.nextText());
+                }
+                return Collections.unmodifiableSet(set);
+            default:
+                Log.w(TAG, "Skipping <" + type + "> " + parser.getPositionDescription());
+                skipElement(parser);
+                return null;
+        }
+    }
+
+    /**
+     * @return the value attribute of a scalar entry, the parser is moved to its end tag.
+     */
+    private static String attributeValue(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String value = parser.getAttributeValue(null, "value");
+        if (value == null) {
+            throw new XmlPullParserException("Missing value " + parser.getPositionDescription());
+        }
+        skipElement(parser);
+        return value;
+    }
+
+    private static void skipElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        while (parser.next() != XmlPullParser.END_TAG || parser.getDepth() > depth) {
+            if (parser.getEventType() == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unterminated element " + parser.getPositionDescription());
+            }
+        }
+    }
+
+    private void commit(SharedPreferencesImpl sharedPreferences, Map<String, Object> batch, int entries,
+                        File progressFile, String fileVersion) throws IOException {
+        if (!sharedPreferences.edit().putAll(batch).commit()) {
+            throw new IOException("Failed to commit " + batch.size() + " imported preferences");
+        }
+        batch.clear();
+        /*A crash before this line imports the batch again, which writes the same values */
+        writeProgress(progressFile, entries, fileVersion);
+    }
+
+    private void reportProgress(String preferenceName, int entries, long bytesRead, long totalBytes) {
+        ProgressListener progressListener = mProgressListener;
+        if (progressListener != null) {
+            progressListener.onProgress(preferenceName, entries, bytesRead, totalBytes);
+        }
+    }
+
+    /**
+     * @return entries committed by an earlier import of the same version of the file, otherwise 0.
+     */
+    private static int readProgress(File progressFile, String fileVersion) {
+        if (!progressFile.exists()) {
+            return 0;
+        }
+        try {
+            InputStream in = new FileInputStream(progressFile);
+            try {
+                byte[] bytes = new byte[(int) progressFile.length()];
+                int length = 0;
+                int read;
+                while (length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) > 0) {
+                    length += read;
+                }
+                String[] progress = new String(bytes, 0, length, "UTF-8").split("\n");
+                return progress.length == 2 && progress[1].equals(fileVersion) ? Integer.parseInt(progress[0]) : 0;
+            } finally {
+                in.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            /*Importing again from the start writes the same values */
+            return 0;
+        }
+    }
+
+    private static void writeProgress(File progressFile, int entries, String fileVersion) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(progressFile), "UTF-8");
+        try {
+            writer.write(entries + "\n" + fileVersion);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Counts the bytes the parser consumed, for progress reports.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                mCount++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
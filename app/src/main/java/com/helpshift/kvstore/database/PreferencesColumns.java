@@ -5,4 +5,5 @@ import android.provider.BaseColumns;
 public interface PreferencesColumns extends BaseColumns {
     String COLUMN_NAME_KEY = "preferenceKey";
     String COLUMN_NAME_VALUE = "preferenceValue";
+    String COLUMN_NAME_SEQUENCE = "sequence";
 }
\ No newline at end of file
@@ -16,8 +16,13 @@ package com.helpshift.kvstore.database;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import com.helpshift.kvstore.storage.PreferenceStorage;
+
+import java.util.Comparator;
+
 
 public class PreferencesContent implements PreferencesColumns {
 
@@ -29,6 +34,11 @@ public class PreferencesContent implements PreferencesColumns {
 
     public static final String KEY_PREFERENCE_NAME = "preferenceName";
 
+    /**
+     * Orders keys the way the key index does, see {@link PreferenceStorage#KEY_ORDER}.
+     */
+    public static final Comparator<String> KEY_ORDER = PreferenceStorage.KEY_ORDER;
+
     public static String createTableQuery() {
         return "CREATE TABLE IF NOT EXISTS" + TABLE_NAME
                 + "("
@@ -44,6 +54,166 @@ public class PreferencesContent implements PreferencesColumns {
                 + COLUMN_NAME_KEY + " TEXT NOT NULL,"
                 + COLUMN_NAME_VALUE + " TEXT NOT NULL );";
         sqLiteDatabase.execSQL(s);
+        createKeyIndex(tableName, sqLiteDatabase);
+    }
+
+    /**
+     * Creates the unique index on {@link #COLUMN_NAME_KEY} which the upsert statement relies on.
+     * Tables created before the index existed may hold duplicate keys, those are collapsed to
+     * the most recently inserted row first.
+     */
+    private static void createKeyIndex(String tableName, SQLiteDatabase sqLiteDatabase) {
+        String indexName = keyIndexName(tableName);
+        SQLiteStatement statement = sqLiteDatabase.compileStatement(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?");
+        try {
+            statement.bindString(1, indexName);
+            if (statement.simpleQueryForLong() > 0) {
+                return;
+            }
+        } finally {
+            statement.close();
+        }
+        sqLiteDatabase.beginTransaction();
+        try {
+            sqLiteDatabase.execSQL("DELETE FROM " + tableName + " WHERE " + _ID + " NOT IN (SELECT MAX("
+                    + _ID + ") FROM " + tableName + " GROUP BY " + COLUMN_NAME_KEY + ")");
+            sqLiteDatabase.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + indexName + " ON " + tableName
+                    + "(" + COLUMN_NAME_KEY + ")");
+            sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            sqLiteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Selects one page of a scan in key order, served by the key index. Binds the key the page
+     * starts from, followed by the exclusive end of the range if it is bounded.
+     *
+     * @param inclusive whether the page may start with the bound key itself.
+     */
+    public static String pageQuery(String tableName, boolean inclusive, boolean bounded, int pageSize) {
+        return "SELECT " + COLUMN_NAME_KEY + ", " + COLUMN_NAME_VALUE + " FROM " + tableName + " WHERE "
+                + COLUMN_NAME_KEY + (inclusive ? " >= ?" : " > ?") + (bounded ? " AND " + COLUMN_NAME_KEY + " < ?" : "")
+                + " ORDER BY " + COLUMN_NAME_KEY + " LIMIT " + pageSize;
+    }
+
+    public static String changeLogTableName(String tableName) {
+        return tableName + "_changes";
+    }
+
+    /**
+     * Creates the change log of a table, one row per written change of a key. A new log continues
+     * from a sequence based on the current time, so consumers of a log dropped earlier see their
+     * sequence as pruned instead of reading it again.
+     */
+    public static void createChangeLogTable(String tableName, SQLiteDatabase sqLiteDatabase) {
+        String logTableName = changeLogTableName(tableName);
+        SQLiteStatement statement = sqLiteDatabase.compileStatement(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?");
+        try {
+            statement.bindString(1, logTableName);
+            if (statement.simpleQueryForLong() > 0) {
+                return;
+            }
+        } finally {
+            statement.close();
+        }
+        sqLiteDatabase.beginTransaction();
+        try {
+            sqLiteDatabase.execSQL("CREATE TABLE " + logTableName + "("
+                    + COLUMN_NAME_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_NAME_KEY + " TEXT NOT NULL)");
+            sqLiteDatabase.execSQL("INSERT INTO sqlite_sequence(name, seq) VALUES (?, ?)",
+                    new Object[]{logTableName, System.currentTimeMillis() * 1000});
+            sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            sqLiteDatabase.endTransaction();
+        }
+    }
+
+    public static String dropChangeLogTableQuery(String tableName) {
+        return "DROP TABLE IF EXISTS " + changeLogTableName(tableName);
+    }
+
+    public static String logChangeQuery(String tableName) {
+        return "INSERT INTO " + changeLogTableName(tableName) + "(" + COLUMN_NAME_KEY + ") VALUES (?)";
+    }
+
+    /**
+     * Logs every key of the table as changed, run before the table is cleared.
+     */
+    public static String logAllKeysQuery(String tableName) {
+        return "INSERT INTO " + changeLogTableName(tableName) + "(" + COLUMN_NAME_KEY + ") SELECT "
+                + COLUMN_NAME_KEY + " FROM " + tableName;
+    }
+
+    /**
+     * Selects the latest sequence handed out by the change log. Binds the name of the log table.
+     */
+    public static String lastSequenceQuery() {
+        return "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name = ?";
+    }
+
+    /**
+     * Deletes all but the latest changes. Binds the name of the log table followed by the number
+     * of changes kept.
+     */
+    public static String pruneChangeLogQuery(String tableName) {
+        return "DELETE FROM " + changeLogTableName(tableName) + " WHERE " + COLUMN_NAME_SEQUENCE
+                + " <= (" + lastSequenceQuery() + ") - ?";
+    }
+
+    /**
+     * Selects the sequence preceding the oldest logged change, or the latest sequence if nothing
+     * is logged. Changes after it are all in the log. Binds the name of the log table.
+     */
+    public static String changeLogStartQuery(String tableName) {
+        return "SELECT IFNULL(MIN(" + COLUMN_NAME_SEQUENCE + ") - 1, (" + lastSequenceQuery() + ")) FROM "
+                + changeLogTableName(tableName);
+    }
+
+    /**
+     * Selects one page of the keys changed after a sequence, once each at their latest change, with
+     * their current value or {@code NULL} if they were removed. Binds the sequence.
+     */
+    public static String changesSinceQuery(String tableName, int pageSize) {
+        return "SELECT l." + COLUMN_NAME_KEY + ", t." + COLUMN_NAME_VALUE + ", l." + COLUMN_NAME_SEQUENCE
+                + " FROM (SELECT " + COLUMN_NAME_KEY + ", MAX(" + COLUMN_NAME_SEQUENCE + ") AS "
+                + COLUMN_NAME_SEQUENCE + " FROM " + changeLogTableName(tableName) + " WHERE "
+                + COLUMN_NAME_SEQUENCE + " > ? GROUP BY " + COLUMN_NAME_KEY + ") l LEFT JOIN " + tableName
+                + " t ON t." + COLUMN_NAME_KEY + " = l." + COLUMN_NAME_KEY + " ORDER BY l."
+                + COLUMN_NAME_SEQUENCE + " LIMIT " + pageSize;
+    }
+
+    /**
+     * Selects the rows of {@code count} keys through the key index, binds the keys.
+     */
+    public static String keysQuery(String tableName, int count) {
+        StringBuilder query = new StringBuilder("SELECT ").append(COLUMN_NAME_KEY).append(", ")
+                .append(COLUMN_NAME_VALUE).append(" FROM ").append(tableName).append(" WHERE ")
+                .append(COLUMN_NAME_KEY).append(" IN (?");
+        for (int i = 1; i < count; i++) {
+            query.append(", ?");
+        }
+        return query.append(")").toString();
+    }
+
+    public static String keyIndexName(String tableName) {
+        return tableName + "_key_index";
+    }
+
+    public static String upsertQuery(String tableName) {
+        return "INSERT OR REPLACE INTO " + tableName + "(" + COLUMN_NAME_KEY + ", " + COLUMN_NAME_VALUE
+                + ") VALUES (?, ?)";
+    }
+
+    public static String deleteQuery(String tableName) {
+        return "DELETE FROM " + tableName + " WHERE " + SELECTION_VAI_KEY;
+    }
+
+    public static String deleteAllQuery(String tableName) {
+        return "DELETE FROM " + tableName;
     }
 
 
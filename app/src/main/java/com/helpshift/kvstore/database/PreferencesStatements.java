@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Compiled write statements of a single preference table. Statements are compiled once on first
+ * use and reused for every commit, so writing a key costs exactly one statement execution.
+ * <p>
+ * {@link SQLiteStatement} is not thread safe, callers must only use an instance from the thread
+ * which commits the table.
+ */
+public class PreferencesStatements {
+
+    private final SQLiteDatabase mSqLiteDatabase;
+
+    private final String mTableName;
+
+    private SQLiteStatement mUpsertStatement;
+
+    private SQLiteStatement mDeleteStatement;
+
+    private SQLiteStatement mDeleteAllStatement;
+
+    private SQLiteStatement mLogChangeStatement;
+
+    private SQLiteStatement mLogAllKeysStatement;
+
+    private SQLiteStatement mPruneChangeLogStatement;
+
+    public PreferencesStatements(String tableName, SQLiteDatabase sqLiteDatabase) {
+        mTableName = tableName;
+        mSqLiteDatabase = sqLiteDatabase;
+    }
+
+    /**
+     * @param value value encoded by {@link ValueCodec}.
+     */
+    public void upsert(String key, byte[] value) {
+        if (mUpsertStatement == null) {
+            mUpsertStatement = mSqLiteDatabase.compileStatement(PreferencesContent.upsertQuery(mTableName));
+        }
+        mUpsertStatement.bindString(1, key);
+        mUpsertStatement.bindBlob(2, value);
+        mUpsertStatement.executeInsert();
+    }
+
+    public void delete(String key) {
+        if (mDeleteStatement == null) {
+            mDeleteStatement = mSqLiteDatabase.compileStatement(PreferencesContent.deleteQuery(mTableName));
+        }
+        mDeleteStatement.bindString(1, key);
+        mDeleteStatement.executeUpdateDelete();
+    }
+
+    public void deleteAll() {
+        if (mDeleteAllStatement == null) {
+            mDeleteAllStatement = mSqLiteDatabase.compileStatement(PreferencesContent.deleteAllQuery(mTableName));
+        }
+        mDeleteAllStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Records a change of {@code key} in the change log of the table.
+     */
+    public void logChange(String key) {
+        if (mLogChangeStatement == null) {
+            mLogChangeStatement = mSqLiteDatabase.compileStatement(PreferencesContent.logChangeQuery(mTableName));
+        }
+        mLogChangeStatement.bindString(1, key);
+        mLogChangeStatement.executeInsert();
+    }
+
+    /**
+     * Records a change of every key in the table, called before the table is cleared.
+     */
+    public void logAllKeys() {
+        if (mLogAllKeysStatement == null) {
+            mLogAllKeysStatement = mSqLiteDatabase.compileStatement(PreferencesContent.logAllKeysQuery(mTableName));
+        }
+        mLogAllKeysStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Deletes all but the latest {@code retention} changes from the change log.
+     */
+    public void pruneChangeLog(int retention) {
+        if (mPruneChangeLogStatement == null) {
+            mPruneChangeLogStatement = mSqLiteDatabase.compileStatement(
+                    PreferencesContent.pruneChangeLogQuery(mTableName));
+        }
+        mPruneChangeLogStatement.bindString(1, PreferencesContent.changeLogTableName(mTableName));
+        mPruneChangeLogStatement.bindLong(2, retention);
+        mPruneChangeLogStatement.executeUpdateDelete();
+    }
+
+    public void close() {
+        if (mUpsertStatement != null) {
+            mUpsertStatement.close();
+            mUpsertStatement = null;
+        }
+        if (mDeleteStatement != null) {
+            mDeleteStatement.close();
+            mDeleteStatement = null;
+        }
+        if (mDeleteAllStatement != null) {
+            mDeleteAllStatement.close();
+            mDeleteAllStatement = null;
+        }
+        if (mLogChangeStatement != null) {
+            mLogChangeStatement.close();
+            mLogChangeStatement = null;
+        }
+        if (mLogAllKeysStatement != null) {
+            mLogAllKeysStatement.close();
+            mLogAllKeysStatement = null;
+        }
+        if (mPruneChangeLogStatement != null) {
+            mPruneChangeLogStatement.close();
+            mPruneChangeLogStatement = null;
+        }
+    }
+}
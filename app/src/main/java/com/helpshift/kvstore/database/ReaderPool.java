@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Read only connections to the database of a {@link SQLiteOpenHelper}, opened on demand up to a
+ * fixed number. With write-ahead logging, reads on these connections run while the helper's own
+ * connection is in a write transaction instead of waiting for it to end.
+ * <p>
+ * Every {@link #acquire()} must be followed by a {@link #release(SQLiteDatabase)} once the
+ * cursors of the read are closed.
+ */
+public class ReaderPool {
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    private final int mSize;
+
+    private final BlockingQueue<SQLiteDatabase> mIdle = new LinkedBlockingQueue<>();
+
+    private final List<SQLiteDatabase> mConnections = new ArrayList<>();
+
+    /**
+     * @param size number of reader connections, reads beyond it wait for a connection to be released.
+     */
+    public ReaderPool(SQLiteOpenHelper openHelper, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid reader pool size " + size);
+        }
+        mOpenHelper = openHelper;
+        mSize = size;
+    }
+
+    /**
+     * @return an idle connection, opening one if fewer than the pool size are open.
+     */
+    public SQLiteDatabase acquire() {
+        SQLiteDatabase connection = mIdle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (this) {
+            if (mConnections.size() < mSize) {
+                connection = SQLiteDatabase.openDatabase(mOpenHelper.getWritableDatabase().getPath(), null,
+                        SQLiteDatabase.OPEN_READONLY);
+                mConnections.add(connection);
+                return connection;
+            }
+        }
+        try {
+            return mIdle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a reader connection", e);
+        }
+    }
+
+    public void release(SQLiteDatabase connection) {
+        mIdle.offer(connection);
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Closes every connection, must not be called while reads are running.
+     */
+    public synchronized void close() {
+        for (SQLiteDatabase connection : mConnections) {
+            connection.close();
+        }
+        mConnections.clear();
+        mIdle.clear();
+    }
+}
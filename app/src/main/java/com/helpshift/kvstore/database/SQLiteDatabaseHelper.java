@@ -23,8 +23,31 @@ public class SQLiteDatabaseHelper extends SQLiteOpenHelper {
 
     public static final int DATABASE_VERSION = 1;
 
+    private volatile boolean mWriteAheadLogging;
+
     public SQLiteDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    public SQLiteDatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Switches the database to write-ahead logging when it is opened, so reads on other
+     * connections, see {@link ReaderPool}, don't wait for write transactions. Must be called
+     * before the database is opened.
+     */
+    public void setWriteAheadLoggingOnOpen(boolean writeAheadLogging) {
+        mWriteAheadLogging = writeAheadLogging;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (mWriteAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+import com.helpshift.kvstore.storage.ChangeLog;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps a store in a table of a SQLite database, one row per preference. Typed values are stored
+ * as {@link ValueCodec} blobs, values written before that as TEXT.
+ * <p>
+ * With a change log retention set, every write also records the modified keys in a second table
+ * within the same transaction, see {@link ChangeLog}.
+ */
+public class SQLiteStorage implements PreferenceStorage, ChangeLog {
+
+    /*Bound arguments per query, SQLite rejects more than 999 before 3.32 */
+    private static final int MAX_QUERY_ARGUMENTS = 999;
+
+    /*Durability each connection is configured for, connections may be shared by several stores.
+    Guarded by itself, entries only change under the lock of their connection */
+    private static final Map<SQLiteDatabase, Durability> sConfigured = new WeakHashMap<>();
+
+    private final String mTableName;
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    /*Connections for reads, null if reads share the writing connection */
+    private final ReaderPool mReaderPool;
+
+    /*Both set by open() */
+    private SQLiteDatabase mSqLiteDatabase;
+
+    private PreferencesStatements mStatements;
+
+    /*Changes kept in the change log, 0 if changes are not logged */
+    private int mChangeLogRetention;
+
+    /**
+     * @param readerPool connections reads are made on so they don't wait for writes, {@code null}
+     *                   to read on the connection of {@code openHelper}.
+     */
+    public SQLiteStorage(String tableName, SQLiteOpenHelper openHelper, ReaderPool readerPool) {
+        mTableName = tableName;
+        mOpenHelper = openHelper;
+        mReaderPool = readerPool;
+    }
+
+    /**
+     * Keeps the latest {@code retention} changes in a change log, 0 drops the log. Must be called
+     * before {@link #open()}.
+     */
+    public void setChangeLogRetention(int retention) {
+        if (retention < 0) {
+            throw new IllegalArgumentException("Invalid change log retention " + retention);
+        }
+        mChangeLogRetention = retention;
+    }
+
+    @Override
+    public void open() {
+        SQLiteDatabase sqLiteDatabase = mOpenHelper.getWritableDatabase();
+        PreferencesContent.createTableQuery(mTableName, sqLiteDatabase);
+        if (mChangeLogRetention > 0) {
+            PreferencesContent.createChangeLogTable(mTableName, sqLiteDatabase);
+        } else {
+            sqLiteDatabase.execSQL(PreferencesContent.dropChangeLogTableQuery(mTableName));
+        }
+        mStatements = new PreferencesStatements(mTableName, sqLiteDatabase);
+        mSqLiteDatabase = sqLiteDatabase;
+    }
+
+    @Override
+    public Object get(String key) {
+        SQLiteDatabase sqLiteDatabase = acquireReader();
+        Cursor cursor = null;
+        try {
+            cursor = sqLiteDatabase.query(mTableName, PreferencesContent.PREFERENCES_PROJECTION,
+                    PreferencesContent.SELECTION_VAI_KEY, new String[]{key}, null, null, null);
+            if (cursor != null && cursor.moveToNext()) {
+                return decodeValue(cursor);
+            }
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            releaseReader(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Looks up at most {@link #MAX_QUERY_ARGUMENTS} keys per query.
+     */
+    @Override
+    public Map<String, Object> getMany(Collection<String> keys) {
+        Map<String, Object> values = new HashMap<>();
+        List<String> keyList = new ArrayList<>(keys);
+        for (int start = 0; start < keyList.size(); start += MAX_QUERY_ARGUMENTS) {
+            List<String> chunk = keyList.subList(start, Math.min(keyList.size(), start + MAX_QUERY_ARGUMENTS));
+            SQLiteDatabase sqLiteDatabase = acquireReader();
+            Cursor cursor = null;
+            try {
+                cursor = sqLiteDatabase.rawQuery(PreferencesContent.keysQuery(mTableName, chunk.size()),
+                        chunk.toArray(new String[chunk.size()]));
+                while (cursor.moveToNext()) {
+                    values.put(cursor.getString(0), decodeValue(cursor));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                releaseReader(sqLiteDatabase);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads {@code pageSize} rows per query, every page seeks past the last key of the previous one
+     * through the key index. A page is visited after its connection is released, so visitors may
+     * read this storage without waiting for a connection they hold themselves.
+     */
+    @Override
+    public void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) {
+        if (toKey != null && KEY_ORDER.compare(fromKey, toKey) >= 0) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pageSize);
+        List<Object> values = new ArrayList<>(pageSize);
+        String lastKey = null;
+        while (true) {
+            String query = PreferencesContent.pageQuery(mTableName, lastKey == null, toKey != null, pageSize);
+            String pageStart = lastKey == null ? fromKey : lastKey;
+            SQLiteDatabase sqLiteDatabase = acquireReader();
+            Cursor cursor = null;
+            try {
+                cursor = sqLiteDatabase.rawQuery(query,
+                        toKey == null ? new String[]{pageStart} : new String[]{pageStart, toKey});
+                while (cursor.moveToNext()) {
+                    keys.add(cursor.getString(0));
+                    values.add(decodeValue(cursor));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                releaseReader(sqLiteDatabase);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (!visitor.visit(keys.get(i), values.get(i))) {
+                    return;
+                }
+            }
+            if (keys.size() < pageSize) {
+                return;
+            }
+            lastKey = keys.get(keys.size() - 1);
+            keys.clear();
+            values.clear();
+        }
+    }
+
+    @Override
+    public List<String> keys() {
+        SQLiteDatabase sqLiteDatabase = acquireReader();
+        Cursor cursor = null;
+        try {
+            cursor = sqLiteDatabase.rawQuery("SELECT " + PreferencesContent.COLUMN_NAME_KEY + " FROM "
+                    + mTableName, null);
+            List<String> keys = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+            return keys;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            releaseReader(sqLiteDatabase);
+        }
+    }
+
+    @Override
+    public void write(Map<String, Object> changes, boolean clear, Durability durability) {
+        SQLiteDatabase sqLiteDatabase = mSqLiteDatabase;
+        /*The connection may be shared by several stores, its synchronous mode must not change mid transaction */
+        synchronized (sqLiteDatabase) {
+            configure(sqLiteDatabase, durability);
+            sqLiteDatabase.beginTransaction();
+            try {
+                boolean logChanges = mChangeLogRetention > 0;
+                if (clear) {
+                    if (logChanges) {
+                        mStatements.logAllKeys();
+                    }
+                    mStatements.deleteAll();
+                }
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    /*If value of any key is missing we are treating it as removed */
+                    if (entry.getValue() == null) {
+                        mStatements.delete(entry.getKey());
+                    } else {
+                        mStatements.upsert(entry.getKey(), ValueCodec.encode(entry.getValue()));
+                    }
+                    if (logChanges) {
+                        mStatements.logChange(entry.getKey());
+                    }
+                }
+                if (logChanges) {
+                    mStatements.pruneChangeLog(mChangeLogRetention);
+                }
+                sqLiteDatabase.setTransactionSuccessful();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        }
+    }
+
+    @Override
+    public long lastSequence() {
+        checkChangeLog();
+        SQLiteDatabase sqLiteDatabase = acquireReader();
+        try {
+            return querySequence(sqLiteDatabase, PreferencesContent.lastSequenceQuery());
+        } finally {
+            releaseReader(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Reads {@code pageSize} changes per query. Every page is checked against the start of the log
+     * after it was read, so changes pruned while the pages are read are noticed.
+     */
+    @Override
+    public long changesSince(long sequence, int pageSize, PreferenceVisitor visitor) {
+        checkChangeLog();
+        String query = PreferencesContent.changesSinceQuery(mTableName, pageSize);
+        List<String> keys = new ArrayList<>(pageSize);
+        List<Object> values = new ArrayList<>(pageSize);
+        List<Long> sequences = new ArrayList<>(pageSize);
+        while (true) {
+            SQLiteDatabase sqLiteDatabase = acquireReader();
+            Cursor cursor = null;
+            try {
+                cursor = sqLiteDatabase.rawQuery(query, new String[]{Long.toString(sequence)});
+                while (cursor.moveToNext()) {
+                    keys.add(cursor.getString(0));
+                    values.add(decodeValue(cursor));
+                    sequences.add(cursor.getLong(2));
+                }
+                long start = querySequence(sqLiteDatabase, PreferencesContent.changeLogStartQuery(mTableName));
+                if (sequence < start || sequence > querySequence(sqLiteDatabase,
+                        PreferencesContent.lastSequenceQuery())) {
+                    return PRUNED;
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                releaseReader(sqLiteDatabase);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                sequence = sequences.get(i);
+                if (!visitor.visit(keys.get(i), values.get(i))) {
+                    return sequence;
+                }
+            }
+            if (keys.size() < pageSize) {
+                return sequence;
+            }
+            keys.clear();
+            values.clear();
+            sequences.clear();
+        }
+    }
+
+    private void checkChangeLog() {
+        if (mChangeLogRetention <= 0) {
+            throw new UnsupportedOperationException("Changes of " + mTableName + " are not logged");
+        }
+    }
+
+    /**
+     * Runs a sequence query binding the name of the change log table.
+     */
+    private long querySequence(SQLiteDatabase sqLiteDatabase, String query) {
+        SQLiteStatement statement = sqLiteDatabase.compileStatement(query);
+        try {
+            statement.bindString(1, PreferencesContent.changeLogTableName(mTableName));
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Prepares the connection for a transaction with {@code durability}, unless it already is.
+     * Must be called outside of a transaction while holding the lock of the connection.
+     */
+    private static void configure(SQLiteDatabase sqLiteDatabase, Durability durability) {
+        synchronized (sConfigured) {
+            if (sConfigured.get(sqLiteDatabase) == durability) {
+                return;
+            }
+        }
+        switch (durability) {
+            case WAL_NORMAL:
+                sqLiteDatabase.enableWriteAheadLogging();
+                sqLiteDatabase.execSQL("PRAGMA synchronous = NORMAL");
+                break;
+            case MEMORY:
+                sqLiteDatabase.execSQL("PRAGMA synchronous = OFF");
+                break;
+            default:
+                sqLiteDatabase.execSQL("PRAGMA synchronous = FULL");
+                break;
+        }
+        synchronized (sConfigured) {
+            sConfigured.put(sqLiteDatabase, durability);
+        }
+    }
+
+    /**
+     * @return a connection to read the table with, to be handed back to {@link #releaseReader(SQLiteDatabase)}.
+     */
+    private SQLiteDatabase acquireReader() {
+        return mReaderPool == null ? mSqLiteDatabase : mReaderPool.acquire();
+    }
+
+    private void releaseReader(SQLiteDatabase sqLiteDatabase) {
+        if (mReaderPool != null) {
+            mReaderPool.release(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * @return the value in the second column of {@code cursor}, typed values are stored as blobs.
+     */
+    private static Object decodeValue(Cursor cursor) {
+        return cursor.getType(1) == Cursor.FIELD_TYPE_BLOB
+                ? ValueCodec.decode(cursor.getBlob(1)) : cursor.getString(1);
+    }
+}
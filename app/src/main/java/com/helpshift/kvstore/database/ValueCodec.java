@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.database;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Binary format of stored preference values. Every value starts with a one byte type tag
+ * followed by its payload:
+ * <ul>
+ * <li>String - UTF-8 bytes up to the end of the value.</li>
+ * <li>Integer, Long - zigzag varint.</li>
+ * <li>Float - the four bytes of its IEEE 754 bits, big endian.</li>
+ * <li>Boolean - no payload, the value is part of the tag.</li>
+ * <li>String set - varint element count, then every element as varint byte length and UTF-8 bytes.</li>
+ * </ul>
+ * Values written before this format existed are plain TEXT and never go through this class.
+ */
+public final class ValueCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_STRING = 1;
+
+    private static final byte TYPE_INT = 2;
+
+    private static final byte TYPE_LONG = 3;
+
+    private static final byte TYPE_FLOAT = 4;
+
+    private static final byte TYPE_FALSE = 5;
+
+    private static final byte TYPE_TRUE = 6;
+
+    private static final byte TYPE_STRING_SET = 7;
+
+    private static final byte[] ENCODED_FALSE = {TYPE_FALSE};
+
+    private static final byte[] ENCODED_TRUE = {TYPE_TRUE};
+
+    private ValueCodec() {
+    }
+
+    /**
+     * @param value String, Integer, Long, Float, Boolean or Set of String.
+     */
+    public static byte[] encode(Object value) {
+        if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(UTF_8);
+            byte[] encoded = new byte[bytes.length + 1];
+            encoded[0] = TYPE_STRING;
+            System.arraycopy(bytes, 0, encoded, 1, bytes.length);
+            return encoded;
+        }
+        if (value instanceof Integer) {
+            return encodeVarint(TYPE_INT, zigzag((Integer) value));
+        }
+        if (value instanceof Long) {
+            return encodeVarint(TYPE_LONG, zigzag((Long) value));
+        }
+        if (value instanceof Float) {
+            int bits = Float.floatToIntBits((Float) value);
+            return new byte[]{TYPE_FLOAT, (byte) (bits >>> 24), (byte) (bits >>> 16), (byte) (bits >>> 8), (byte) bits};
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? ENCODED_TRUE : ENCODED_FALSE;
+        }
+        if (value instanceof Set) {
+            return encodeStringSet((Set<?>) value);
+        }
+        throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+    }
+
+    /**
+     * @return the decoded value, string sets are returned unmodifiable.
+     */
+    public static Object decode(byte[] encoded) {
+        switch (encoded[0]) {
+            case TYPE_STRING:
+                return new String(encoded, 1, encoded.length - 1, UTF_8);
+            case TYPE_INT:
+                return (int) unzigzag(new Reader(encoded).readVarint());
+            case TYPE_LONG:
+                return unzigzag(new Reader(encoded).readVarint());
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(((encoded[1] & 0xff) << 24) | ((encoded[2] & 0xff) << 16)
+                        | ((encoded[3] & 0xff) << 8) | (encoded[4] & 0xff));
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_STRING_SET:
+                return decodeStringSet(encoded);
+            default:
+                throw new IllegalArgumentException("Unknown value type " + encoded[0]);
+        }
+    }
+
+    private static byte[] encodeStringSet(Set<?> values) {
+        byte[][] elements = new byte[values.size()][];
+        int size = 1 + varintSize(elements.length);
+        int i = 0;
+        for (Object value : values) {
+            elements[i] = ((String) value).getBytes(UTF_8);
+            size += varintSize(elements[i].length) + elements[i].length;
+            i++;
+        }
+        byte[] encoded = new byte[size];
+        encoded[0] = TYPE_STRING_SET;
+        int position = writeVarint(encoded, 1, elements.length);
+        for (byte[] element : elements) {
+            position = writeVarint(encoded, position, element.length);
+            System.arraycopy(element, 0, encoded, position, element.length);
+            position += element.length;
+        }
+        return encoded;
+    }
+
+    private static Set<String> decodeStringSet(byte[] encoded) {
+        Reader reader = new Reader(encoded);
+        int count = (int) reader.readVarint();
+        Set<String> values = new HashSet<>(Math.max(4, (int) (count / .75f) + 1));
+        for (int i = 0; i < count; i++) {
+            int length = (int) reader.readVarint();
+            values.add(new String(encoded, reader.mPosition, length, UTF_8));
+            reader.mPosition += length;
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    private static byte[] encodeVarint(byte type, long value) {
+        byte[] encoded = new byte[1 + varintSize(value)];
+        encoded[0] = type;
+        writeVarint(encoded, 1, value);
+        return encoded;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return position after the written varint.
+     */
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Reader {
+
+        private final byte[] mBuffer;
+
+        /*Payload starts right after the type tag */
+        private int mPosition = 1;
+
+        Reader(byte[] buffer) {
+            mBuffer = buffer;
+        }
+
+        long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mBuffer[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
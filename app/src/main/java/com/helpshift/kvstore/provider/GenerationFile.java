@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Counter of the writes to one store, kept in a 4 byte file which every process of the app maps.
+ * The process hosting {@link PreferenceProvider} increments it after each write, the others read
+ * it with a memory load instead of a call into the provider. An aligned int is read and written
+ * whole, so a reader sees either the old or the new count.
+ */
+final class GenerationFile {
+
+    private static final int SIZE = 4;
+
+    private final MappedByteBuffer mBuffer;
+
+    private GenerationFile(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Maps {@code file}, creating it with a count of 0 if needed.
+     */
+    static GenerationFile open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() < SIZE) {
+                randomAccessFile.setLength(SIZE);
+            }
+            /*The mapping stays valid after the file is closed */
+            return new GenerationFile(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    int get() {
+        return mBuffer.getInt(0);
+    }
+
+    /**
+     * Must only be called by the provider's process, with writes to the store locked.
+     *
+     * @return the new count.
+     */
+    int increment() {
+        int generation = mBuffer.getInt(0) + 1;
+        mBuffer.putInt(0, generation);
+        return generation;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+import com.helpshift.kvstore.SharedPreferencesContext;
+import com.helpshift.kvstore.database.PreferencesContent;
+import com.helpshift.kvstore.database.ValueCodec;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the stores of the app in multi-process mode, see
+ * {@link SharedPreferencesContext#enableMultiProcess(String)}. Every process reads and writes them
+ * through a {@link ProviderStorage}, the provider keeps them in the databases of its own process.
+ * <p>
+ * A store is addressed as {@code content://<authority>/<preference name>}. Writes are
+ * {@link #applyBatch(ArrayList)} calls of inserts and deletes which are collected and written in
+ * one transaction, after which the {@link GenerationFile} of the store is incremented. Reads are
+ * queries of one of these paths below the store:
+ * <ul>
+ * <li>{@link #PATH_KEYS}: the preferences whose keys are the selection arguments.</li>
+ * <li>{@link #PATH_RANGE}: up to {@link #PARAM_LIMIT} preferences in key order, from
+ * {@link #PARAM_FROM} inclusive to {@link #PARAM_TO} exclusive.</li>
+ * <li>{@link #PATH_INDEX}: every key, without values.</li>
+ * </ul>
+ * Rows hold the key and the {@link ValueCodec} encoded value.
+ */
+public class PreferenceProvider extends ContentProvider {
+
+    static final String PATH_KEYS = "keys";
+
+    static final String PATH_RANGE = "range";
+
+    static final String PATH_INDEX = "index";
+
+    static final String PARAM_FROM = "from";
+
+    static final String PARAM_TO = "to";
+
+    static final String PARAM_LIMIT = "limit";
+
+    static final String PARAM_DURABILITY = "durability";
+
+    /*Opened stores by preference name */
+    private final Map<String, Store> mStores = new HashMap<>();
+
+    /*Edits collected by the applyBatch() call running on this thread */
+    private final ThreadLocal<PendingBatch> mPendingBatch = new ThreadLocal<>();
+
+    static Uri storeUri(String authority, String preferenceName) {
+        return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(authority)
+                .appendPath(preferenceName).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        /*Stores are opened by the first call which needs them */
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2) {
+            throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+        PreferenceStorage storage = store(uri).mStorage;
+        final MatrixCursor cursor = new MatrixCursor(PreferencesContent.PREFERENCES_PROJECTION);
+        try {
+            switch (segments.get(1)) {
+                case PATH_KEYS:
+                    for (Map.Entry<String, Object> entry : storage.getMany(Arrays.asList(selectionArgs)).entrySet()) {
+                        cursor.addRow(new Object[]{entry.getKey(), ValueCodec.encode(entry.getValue())});
+                    }
+                    break;
+                case PATH_RANGE:
+                    final int limit = Integer.parseInt(uri.getQueryParameter(PARAM_LIMIT));
+                    storage.scan(uri.getQueryParameter(PARAM_FROM), uri.getQueryParameter(PARAM_TO), limit,
+                            new PreferenceVisitor() {
+                                private int mRows;
+
+                                @Override
+                                public boolean visit(String key, Object value) {
+                                    cursor.addRow(new Object[]{key, ValueCodec.encode(value)});
+                                    return ++mRows < limit;
+                                }
+                            });
+                    break;
+                case PATH_INDEX:
+                    for (String key : storage.keys()) {
+                        cursor.addRow(new Object[]{key, null});
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown uri " + uri);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + segments.get(0), e);
+        }
+        return cursor;
+    }
+
+    /**
+     * Applies the inserts and deletes of one store as a single write.
+     *
+     * @return the results of the operations followed by one whose count is the generation the
+     * write produced.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (operations.isEmpty()) {
+            return new ContentProviderResult[0];
+        }
+        Uri uri = operations.get(0).getUri();
+        for (ContentProviderOperation operation : operations) {
+            if (!operation.getUri().getPathSegments().equals(uri.getPathSegments())) {
+                throw new OperationApplicationException("Batch spans several stores: " + operation.getUri());
+            }
+        }
+        PendingBatch batch = new PendingBatch(uri);
+        ContentProviderResult[] results;
+        mPendingBatch.set(batch);
+        try {
+            results = super.applyBatch(operations);
+        } finally {
+            mPendingBatch.remove();
+        }
+        int generation;
+        try {
+            generation = write(store(uri), batch);
+        } catch (IOException e) {
+            throw new OperationApplicationException("Failed to write " + uri, e);
+        }
+        results = Arrays.copyOf(results, results.length + 1);
+        results[results.length - 1] = new ContentProviderResult(generation);
+        return results;
+    }
+
+    /**
+     * Puts {@link PreferencesContent#COLUMN_NAME_KEY} to the encoded
+     * {@link PreferencesContent#COLUMN_NAME_VALUE}, written right away unless called by
+     * {@link #applyBatch(ArrayList)}.
+     */
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        PendingBatch batch = pendingBatch(uri);
+        batch.mChanges.put(values.getAsString(PreferencesContent.COLUMN_NAME_KEY),
+                ValueCodec.decode(values.getAsByteArray(PreferencesContent.COLUMN_NAME_VALUE)));
+        writeUnlessPending(uri, batch);
+        return uri;
+    }
+
+    /**
+     * Removes the key selected by {@link PreferencesContent#SELECTION_VAI_KEY}, or every key
+     * without a selection. Written right away unless called by {@link #applyBatch(ArrayList)}.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        PendingBatch batch = pendingBatch(uri);
+        if (selection == null) {
+            batch.mChanges.clear();
+            batch.mClear = true;
+        } else if (PreferencesContent.SELECTION_VAI_KEY.equals(selection)) {
+            batch.mChanges.put(selectionArgs[0], null);
+        } else {
+            throw new IllegalArgumentException("Unsupported selection " + selection);
+        }
+        writeUnlessPending(uri, batch);
+        return 1;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Preferences are written by insert");
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    private PendingBatch pendingBatch(Uri uri) {
+        PendingBatch batch = mPendingBatch.get();
+        return batch == null ? new PendingBatch(uri) : batch;
+    }
+
+    private void writeUnlessPending(Uri uri, PendingBatch batch) {
+        if (batch != mPendingBatch.get()) {
+            try {
+                write(store(uri), batch);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write " + uri, e);
+            }
+        }
+    }
+
+    /**
+     * @return the generation of the store after the write.
+     */
+    private static int write(Store store, PendingBatch batch) throws IOException {
+        /*Writers of other processes arrive on different binder threads */
+        synchronized (store) {
+            store.mStorage.write(batch.mChanges, batch.mClear, batch.mDurability);
+            return store.mGeneration.increment();
+        }
+    }
+
+    /**
+     * @return the opened store {@code uri} points to.
+     */
+    private Store store(Uri uri) {
+        String preferenceName = uri.getPathSegments().get(0);
+        synchronized (mStores) {
+            Store store = mStores.get(preferenceName);
+            if (store == null) {
+                PreferenceStorage storage = SharedPreferencesContext.getInstance(getContext())
+                        .newDatabaseStorage(preferenceName);
+                try {
+                    storage.open();
+                    store = new Store(storage, GenerationFile.open(
+                            ProviderStorage.generationFile(getContext(), preferenceName)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to open " + preferenceName, e);
+                }
+                mStores.put(preferenceName, store);
+            }
+            return store;
+        }
+    }
+
+    private static class Store {
+
+        final PreferenceStorage mStorage;
+
+        final GenerationFile mGeneration;
+
+        Store(PreferenceStorage storage, GenerationFile generation) {
+            mStorage = storage;
+            mGeneration = generation;
+        }
+    }
+
+    private static class PendingBatch {
+
+        final Map<String, Object> mChanges = new HashMap<>();
+
+        final Durability mDurability;
+
+        boolean mClear;
+
+        PendingBatch(Uri uri) {
+            String durability = uri.getQueryParameter(PARAM_DURABILITY);
+            mDurability = durability == null ? Durability.FULL : Durability.valueOf(durability);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+import com.helpshift.kvstore.database.PreferencesContent;
+import com.helpshift.kvstore.database.ValueCodec;
+import com.helpshift.kvstore.storage.PreferenceStorage;
+import com.helpshift.kvstore.storage.VersionedStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes a store through the {@link PreferenceProvider} of the app, so several processes
+ * can share it. Each write is sent as one {@link ContentResolver#applyBatch(String, ArrayList)}
+ * call and written in one transaction by the provider.
+ * <p>
+ * The data version is read from a {@link GenerationFile} the provider increments on every write,
+ * so checking whether cached values are still current costs no call into the provider.
+ */
+public class ProviderStorage implements PreferenceStorage, VersionedStorage {
+
+    private final ContentResolver mContentResolver;
+
+    private final String mAuthority;
+
+    private final String mPreferenceName;
+
+    private final Uri mUri;
+
+    private final File mGenerationFile;
+
+    /*Set by open() */
+    private GenerationFile mGeneration;
+
+    /*Only used by the writing thread */
+    private int mLastWrittenVersion;
+
+    /**
+     * @param authority authority {@link PreferenceProvider} is declared with in the manifest.
+     */
+    public ProviderStorage(Context context, String authority, String preferenceName) {
+        mContentResolver = context.getContentResolver();
+        mAuthority = authority;
+        mPreferenceName = preferenceName;
+        mUri = PreferenceProvider.storeUri(authority, preferenceName);
+        mGenerationFile = generationFile(context, preferenceName);
+    }
+
+    static File generationFile(Context context, String preferenceName) {
+        return new File(context.getFilesDir(), "app_settings_" + preferenceName + ".generation");
+    }
+
+    @Override
+    public void open() throws IOException {
+        mGeneration = GenerationFile.open(mGenerationFile);
+    }
+
+    @Override
+    public int dataVersion() {
+        return mGeneration.get();
+    }
+
+    @Override
+    public int lastWrittenVersion() {
+        return mLastWrittenVersion;
+    }
+
+    @Override
+    public Object get(String key) throws IOException {
+        return getMany(Collections.singletonList(key)).get(key);
+    }
+
+    @Override
+    public Map<String, Object> getMany(Collection<String> keys) throws IOException {
+        final Map<String, Object> values = new HashMap<>();
+        query(mUri.buildUpon().appendPath(PreferenceProvider.PATH_KEYS).build(),
+                keys.toArray(new String[keys.size()]), new PreferenceVisitor() {
+                    @Override
+                    public boolean visit(String key, Object value) {
+                        values.put(key, value);
+                        return true;
+                    }
+                });
+        return values;
+    }
+
+    /**
+     * Reads {@code pageSize} preferences per query, every page starts right after the last key of
+     * the previous one.
+     */
+    @Override
+    public void scan(String fromKey, String toKey, int pageSize, final PreferenceVisitor visitor) throws IOException {
+        final String[] lastKey = new String[1];
+        final boolean[] stopped = new boolean[1];
+        String pageStart = fromKey;
+        while (true) {
+            Uri.Builder builder = mUri.buildUpon().appendPath(PreferenceProvider.PATH_RANGE)
+                    .appendQueryParameter(PreferenceProvider.PARAM_FROM, pageStart)
+                    .appendQueryParameter(PreferenceProvider.PARAM_LIMIT, Integer.toString(pageSize));
+            if (toKey != null) {
+                builder.appendQueryParameter(PreferenceProvider.PARAM_TO, toKey);
+            }
+            int rows = query(builder.build(), null, new PreferenceVisitor() {
+                @Override
+                public boolean visit(String key, Object value) {
+                    lastKey[0] = key;
+                    stopped[0] = !visitor.visit(key, value);
+                    return !stopped[0];
+                }
+            });
+            if (stopped[0] || rows < pageSize) {
+                return;
+            }
+            /*The smallest key sorting after the last one */
+            pageStart = lastKey[0] + '\0';
+        }
+    }
+
+    @Override
+    public List<String> keys() throws IOException {
+        final List<String> keys = new ArrayList<>();
+        query(mUri.buildUpon().appendPath(PreferenceProvider.PATH_INDEX).build(), null, new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                keys.add(key);
+                return true;
+            }
+        });
+        return keys;
+    }
+
+    @Override
+    public void write(Map<String, Object> changes, boolean clear, Durability durability) throws IOException {
+        Uri uri = mUri.buildUpon().appendQueryParameter(PreferenceProvider.PARAM_DURABILITY, durability.name())
+                .build();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(changes.size() + 1);
+        if (clear) {
+            operations.add(ContentProviderOperation.newDelete(uri).build());
+        }
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                operations.add(ContentProviderOperation.newDelete(uri)
+                        .withSelection(PreferencesContent.SELECTION_VAI_KEY, new String[]{entry.getKey()}).build());
+            } else {
+                operations.add(ContentProviderOperation.newInsert(uri)
+                        .withValue(PreferencesContent.COLUMN_NAME_KEY, entry.getKey())
+                        .withValue(PreferencesContent.COLUMN_NAME_VALUE, ValueCodec.encode(entry.getValue()))
+                        .build());
+            }
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+        ContentProviderResult[] results;
+        try {
+            results = mContentResolver.applyBatch(mAuthority, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("Failed to write " + mPreferenceName, e);
+        }
+        /*The provider appends the generation its write produced */
+        mLastWrittenVersion = results[results.length - 1].count;
+    }
+
+    /**
+     * Visits the rows of a provider query.
+     *
+     * @return number of rows visited.
+     */
+    private int query(Uri uri, String[] selectionArgs, PreferenceVisitor visitor) throws IOException {
+        Cursor cursor = mContentResolver.query(uri, null, null, selectionArgs, null);
+        if (cursor == null) {
+            throw new IOException("No provider for " + uri);
+        }
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+                Object value = cursor.isNull(1) ? null : ValueCodec.decode(cursor.getBlob(1));
+                if (!visitor.visit(cursor.getString(0), value)) {
+                    break;
+                }
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.storage;
+
+import com.helpshift.kvstore.PreferenceVisitor;
+
+import java.io.IOException;
+
+/**
+ * Implemented by storages which number every written change of a key, so a consumer mirroring the
+ * store elsewhere can read what changed since it last looked instead of comparing every key.
+ * <p>
+ * Sequence numbers increase with every change and are never reused. The log only keeps a limited
+ * number of changes, a consumer which fell further behind has to read the whole store again.
+ */
+public interface ChangeLog {
+
+    /**
+     * Returned by {@link #changesSince(long, int, PreferenceVisitor)} when the changes following
+     * the sequence were pruned or the sequence was not handed out by this log.
+     */
+    long PRUNED = -1;
+
+    /**
+     * @return sequence of the latest written change, a consumer reading every preference now can
+     * continue from it.
+     */
+    long lastSequence() throws IOException;
+
+    /**
+     * Visits every key changed after {@code sequence} once, with its current value or {@code null}
+     * if it was removed, in the order of its latest change. Keys removed by a clear are visited as
+     * removed.
+     *
+     * @param pageSize how many changes are read per query.
+     * @return sequence to pass on the next call, that of the last visited change, or {@link #PRUNED}.
+     */
+    long changesSince(long sequence, int pageSize, PreferenceVisitor visitor) throws IOException;
+}
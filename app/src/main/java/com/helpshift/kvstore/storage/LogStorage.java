@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.storage;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+import com.helpshift.kvstore.database.ValueCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the preferences of a store in an append-only log file, without SQLite.
+ * <p>
+ * Every {@link #write(Map, boolean, Durability)} appends one record holding the whole batch:
+ * <pre>
+ * crc32 (int) | payload length (int) | flags (byte) | entry count (int) | entries
+ * entry: op (byte) | key length (int) | UTF-8 key | put only: value length (int) | {@link ValueCodec} value
+ * </pre>
+ * The checksum covers the length and the payload, so a record torn by a crash is detected and
+ * cut off when the log is opened, taking the whole batch with it. Opening replays the log into an
+ * in-memory index of where the current value of every key starts; reads are a single positional
+ * read at that offset.
+ * <p>
+ * Overwritten and removed entries stay in the log until it is compacted. Once dead bytes make up
+ * more than the compaction ratio of the file, the live entries are copied to a new file on the
+ * compaction executor, while writes go on appending to the old one. Records appended meanwhile are
+ * copied over last and the new file replaces the old one by a rename.
+ */
+public class LogStorage implements PreferenceStorage {
+
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    public static final long DEFAULT_MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte FLAG_CLEAR = 1;
+
+    private static final byte OP_PUT = 1;
+
+    private static final byte OP_REMOVE = 2;
+
+    /*Live entries are copied into records of about this size while compacting */
+    private static final int COMPACTION_RECORD_BYTES = 64 * 1024;
+
+    private final File mFile;
+
+    private final File mCompactionFile;
+
+    private final Executor mCompactionExecutor;
+
+    /*Held for reading while the index or channel is used, for writing while either changes */
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /*Serializes appends with each other and with the end of a compaction */
+    private final Object mWriteLock = new Object();
+
+    private RandomAccessFile mRandomAccessFile;
+
+    private FileChannel mChannel;
+
+    private Index mIndex;
+
+    private double mCompactionRatio = DEFAULT_COMPACTION_RATIO;
+
+    private long mMinCompactionBytes = DEFAULT_MIN_COMPACTION_BYTES;
+
+    private boolean mCompacting;
+
+    private final AtomicLong mBytesWritten = new AtomicLong();
+
+    /**
+     * @param compactionExecutor runs compactions, must not be the thread writing the storage.
+     */
+    public LogStorage(File file, Executor compactionExecutor) {
+        mFile = file;
+        mCompactionFile = new File(file.getPath() + ".compact");
+        mCompactionExecutor = compactionExecutor;
+    }
+
+    /**
+     * @param compactionRatio share of dead bytes in the log above which it is compacted.
+     * @param minBytes        size below which the log is never compacted.
+     */
+    public void setCompactionPolicy(double compactionRatio, long minBytes) {
+        if (compactionRatio <= 0 || compactionRatio >= 1 || minBytes < 0) {
+            throw new IllegalArgumentException("Invalid compaction policy " + compactionRatio + ", "
+                    + minBytes + " bytes");
+        }
+        synchronized (mWriteLock) {
+            mCompactionRatio = compactionRatio;
+            mMinCompactionBytes = minBytes;
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        /*Left behind by a compaction which didn't finish, the log is still complete */
+        if (mCompactionFile.exists() && !mCompactionFile.delete()) {
+            throw new IOException("Can't delete " + mCompactionFile);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        Index index = new Index();
+        long end = replay(channel, 0, index);
+        if (end < channel.size()) {
+            /*Torn or corrupt tail, the batches in it were never fully written */
+            channel.truncate(end);
+            channel.force(true);
+        }
+        index.mEnd = end;
+        mLock.writeLock().lock();
+        try {
+            mRandomAccessFile = randomAccessFile;
+            mChannel = channel;
+            mIndex = index;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log file. The storage can't be used afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (mWriteLock) {
+            mLock.writeLock().lock();
+            try {
+                if (mRandomAccessFile != null) {
+                    mRandomAccessFile.close();
+                    mRandomAccessFile = null;
+                    mChannel = null;
+                }
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public Object get(String key) throws IOException {
+        mLock.readLock().lock();
+        try {
+            Location location = mIndex.mEntries.get(key);
+            return location == null ? null : ValueCodec.decode(readValue(mChannel, location));
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMany(Collection<String> keys) throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        mLock.readLock().lock();
+        try {
+            for (String key : keys) {
+                Location location = mIndex.mEntries.get(key);
+                if (location != null) {
+                    values.put(key, ValueCodec.decode(readValue(mChannel, location)));
+                }
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+        return values;
+    }
+
+    @Override
+    public void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) throws IOException {
+        String pageStart = fromKey;
+        boolean inclusive = true;
+        List<String> keys = new ArrayList<>(pageSize);
+        List<Object> values = new ArrayList<>(pageSize);
+        while (true) {
+            keys.clear();
+            values.clear();
+            /*The visitor runs without the lock, it may call back into the store */
+            mLock.readLock().lock();
+            try {
+                NavigableMap<String, Location> tail = mIndex.mEntries.tailMap(pageStart, inclusive);
+                for (Map.Entry<String, Location> entry : tail.entrySet()) {
+                    if (keys.size() == pageSize
+                            || (toKey != null && KEY_ORDER.compare(entry.getKey(), toKey) >= 0)) {
+                        break;
+                    }
+                    keys.add(entry.getKey());
+                    values.add(ValueCodec.decode(readValue(mChannel, entry.getValue())));
+                }
+            } finally {
+                mLock.readLock().unlock();
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (!visitor.visit(keys.get(i), values.get(i))) {
+                    return;
+                }
+            }
+            if (keys.size() < pageSize) {
+                return;
+            }
+            pageStart = keys.get(keys.size() - 1);
+            inclusive = false;
+        }
+    }
+
+    @Override
+    public List<String> keys() throws IOException {
+        mLock.readLock().lock();
+        try {
+            return new ArrayList<>(mIndex.mEntries.keySet());
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(Map<String, Object> changes, boolean clear, Durability durability) throws IOException {
+        byte[] record = encodeRecord(changes, clear);
+        synchronized (mWriteLock) {
+            long position = mIndex.mEnd;
+            writeFully(mChannel, ByteBuffer.wrap(record), position);
+            /*WAL_NORMAL and MEMORY leave syncing to the OS, a torn tail is cut off on open */
+            if (durability == Durability.FULL) {
+                mChannel.force(false);
+            }
+            mBytesWritten.addAndGet(record.length);
+            mLock.writeLock().lock();
+            try {
+                mIndex.apply(record, HEADER_SIZE, record.length - HEADER_SIZE, position + HEADER_SIZE);
+                mIndex.mEnd = position + record.length;
+            } finally {
+                mLock.writeLock().unlock();
+            }
+            if (!mCompacting && needsCompaction()) {
+                mCompacting = true;
+                mCompactionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            compact();
+                        } catch (IOException e) {
+                            /*The log is still complete, the next write retries */
+                            mCompactionFile.delete();
+                        } finally {
+                            synchronized (mWriteLock) {
+                                mCompacting = false;
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return bytes appended to the log files since the storage was created, including compactions.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    /**
+     * @return size of the log file in bytes.
+     */
+    public long getSize() {
+        mLock.readLock().lock();
+        try {
+            return mIndex.mEnd;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the log file taken by entries which are overwritten or removed.
+     */
+    public long getDeadBytes() {
+        mLock.readLock().lock();
+        try {
+            return mIndex.mEnd - mIndex.mLiveBytes;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    private boolean needsCompaction() {
+        long size = mIndex.mEnd;
+        return size >= mMinCompactionBytes && size - mIndex.mLiveBytes > size * mCompactionRatio;
+    }
+
+    /**
+     * Rewrites the live entries into a new log and swaps it in. Writes only wait while the records
+     * appended during the copy are carried over.
+     */
+    void compact() throws IOException {
+        FileChannel channel;
+        TreeMap<String, Location> live;
+        long copiedEnd;
+        mLock.readLock().lock();
+        try {
+            channel = mChannel;
+            live = new TreeMap<>(mIndex.mEntries);
+            copiedEnd = mIndex.mEnd;
+        } finally {
+            mLock.readLock().unlock();
+        }
+        RandomAccessFile compacted = new RandomAccessFile(mCompactionFile, "rw");
+        boolean swapped = false;
+        try {
+            FileChannel compactedChannel = compacted.getChannel();
+            compactedChannel.truncate(0);
+            Index index = new Index();
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(COMPACTION_RECORD_BYTES + 1024);
+            DataOutputStream out = new DataOutputStream(payload);
+            int count = 0;
+            for (Map.Entry<String, Location> entry : live.entrySet()) {
+                /*The old channel stays open until this compaction swaps it */
+                writeEntry(out, entry.getKey(), readValue(channel, entry.getValue()));
+                count++;
+                if (payload.size() >= COMPACTION_RECORD_BYTES) {
+                    appendCompacted(compactedChannel, index, payload, count);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                appendCompacted(compactedChannel, index, payload, count);
+            }
+            synchronized (mWriteLock) {
+                /*Carry over what was appended while copying, then nothing can be appended until the swap */
+                long end = mIndex.mEnd;
+                if (end > copiedEnd) {
+                    ByteBuffer appended = ByteBuffer.allocate((int) (end - copiedEnd));
+                    readFully(channel, appended, copiedEnd);
+                    writeFully(compactedChannel, (ByteBuffer) appended.flip(), index.mEnd);
+                    mBytesWritten.addAndGet(end - copiedEnd);
+                    index.mEnd = replay(compactedChannel, index.mEnd, index);
+                }
+                compactedChannel.force(true);
+                if (!mCompactionFile.renameTo(mFile)) {
+                    throw new IOException("Can't rename " + mCompactionFile + " to " + mFile);
+                }
+                RandomAccessFile old;
+                mLock.writeLock().lock();
+                try {
+                    old = mRandomAccessFile;
+                    mRandomAccessFile = compacted;
+                    mChannel = compactedChannel;
+                    mIndex = index;
+                    swapped = true;
+                } finally {
+                    mLock.writeLock().unlock();
+                }
+                old.close();
+            }
+        } finally {
+            if (!swapped) {
+                compacted.close();
+            }
+        }
+    }
+
+    private void appendCompacted(FileChannel channel, Index index, ByteArrayOutputStream payload, int count)
+            throws IOException {
+        byte[] record = toRecord(payload.toByteArray(), (byte) 0, count);
+        payload.reset();
+        writeFully(channel, ByteBuffer.wrap(record), index.mEnd);
+        mBytesWritten.addAndGet(record.length);
+        index.apply(record, HEADER_SIZE, record.length - HEADER_SIZE, index.mEnd + HEADER_SIZE);
+        index.mEnd += record.length;
+    }
+
+    /**
+     * Applies the valid records from {@code position} on to {@code index}.
+     *
+     * @return the end of the last valid record.
+     */
+    private static long replay(FileChannel channel, long position, Index index) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (size - position >= HEADER_SIZE) {
+            header.clear();
+            readFully(channel, header, position);
+            int checksum = header.getInt(0);
+            int length = header.getInt(4);
+            if (length < 0 || length > size - position - HEADER_SIZE) {
+                break;
+            }
+            byte[] record = new byte[HEADER_SIZE + length];
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            readFully(channel, buffer, position);
+            crc.reset();
+            crc.update(record, 4, record.length - 4);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                index.apply(record, HEADER_SIZE, length, position + HEADER_SIZE);
+            } catch (RuntimeException e) {
+                /*Checksum matched by chance on garbage, treat it as the torn tail */
+                break;
+            }
+            position += record.length;
+        }
+        return position;
+    }
+
+    private static byte[] encodeRecord(Map<String, Object> changes, boolean clear) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            writeEntry(out, entry.getKey(), entry.getValue() == null ? null : ValueCodec.encode(entry.getValue()));
+        }
+        return toRecord(payload.toByteArray(), clear ? FLAG_CLEAR : 0, changes.size());
+    }
+
+    /**
+     * @param value encoded value or {@code null} for a removal.
+     */
+    private static void writeEntry(DataOutputStream out, String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        out.writeByte(value == null ? OP_REMOVE : OP_PUT);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        if (value != null) {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] toRecord(byte[] entries, byte flags, int count) {
+        int length = 1 + 4 + entries.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(0);
+        record.putInt(length);
+        record.put(flags);
+        record.putInt(count);
+        record.put(entries);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static byte[] readValue(FileChannel channel, Location location) throws IOException {
+        byte[] value = new byte[location.mLength];
+        readFully(channel, ByteBuffer.wrap(value), location.mPosition);
+        return value;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Log ended at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Where the current value of every key starts in one log file.
+     */
+    private static final class Index {
+
+        private final TreeMap<String, Location> mEntries = new TreeMap<>(KEY_ORDER);
+
+        /*Bytes of the entries in mEntries, the rest of the file is dead */
+        private long mLiveBytes;
+
+        /*End of the last record, where the next one is appended */
+        private long mEnd;
+
+        /**
+         * @param filePosition position of {@code record[offset]} in the log file.
+         */
+        void apply(byte[] record, int offset, int length, long filePosition) {
+            ByteBuffer payload = ByteBuffer.wrap(record, offset, length);
+            byte flags = payload.get();
+            int count = payload.getInt();
+            if ((flags & FLAG_CLEAR) != 0) {
+                mEntries.clear();
+                mLiveBytes = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                int entryStart = payload.position();
+                byte op = payload.get();
+                byte[] keyBytes = new byte[payload.getInt()];
+                payload.get(keyBytes);
+                String key = new String(keyBytes, UTF_8);
+                Location previous;
+                if (op == OP_PUT) {
+                    int valueLength = payload.getInt();
+                    if (valueLength < 0) {
+                        throw new IllegalArgumentException("Negative value length " + valueLength);
+                    }
+                    long valuePosition = filePosition + payload.position() - offset;
+                    payload.position(payload.position() + valueLength);
+                    int entrySize = payload.position() - entryStart;
+                    previous = mEntries.put(key, new Location(valuePosition, valueLength, entrySize));
+                    mLiveBytes += entrySize;
+                } else if (op == OP_REMOVE) {
+                    previous = mEntries.remove(key);
+                } else {
+                    throw new IllegalArgumentException("Unknown op " + op);
+                }
+                if (previous != null) {
+                    mLiveBytes -= previous.mEntrySize;
+                }
+            }
+        }
+    }
+
+    private static final class Location {
+
+        final long mPosition;
+
+        final int mLength;
+
+        final int mEntrySize;
+
+        Location(long position, int length, int entrySize) {
+            mPosition = position;
+            mLength = length;
+            mEntrySize = entrySize;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.storage;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the preferences of a single store. {@link com.helpshift.kvstore.SharedPreferencesImpl}
+ * caches, batches and orders edits on top of it, a storage only has to read and write them.
+ * <p>
+ * Values are String, Integer, Long, Float, Boolean or an unmodifiable Set of String. Reads may run
+ * on any thread concurrently with each other and with {@link #write(Map, boolean, Durability)},
+ * writes are made one at a time.
+ */
+public interface PreferenceStorage {
+
+    /**
+     * Order of the keys visited by {@link #scan(String, String, int, PreferenceVisitor)}: by code
+     * point, which is the order of their UTF-8 bytes. {@link String#compareTo(String)} differs
+     * from it by putting supplementary characters before U+E000.
+     */
+    Comparator<String> KEY_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            int length = Math.min(lhs.length(), rhs.length());
+            for (int i = 0; i < length; i++) {
+                char l = lhs.charAt(i);
+                char r = rhs.charAt(i);
+                if (l != r) {
+                    if (l >= Character.MIN_SURROGATE && r >= Character.MIN_SURROGATE) {
+                        /*Move surrogates above U+E000..U+FFFF */
+                        l = (char) (l >= 0xE000 ? l - 0x800 : l + 0x2000);
+                        r = (char) (r >= 0xE000 ? r - 0x800 : r + 0x2000);
+                    }
+                    return l - r;
+                }
+            }
+            return lhs.length() - rhs.length();
+        }
+    };
+
+    /**
+     * Opens the storage, creating it if needed. Called once before any other method.
+     */
+    void open() throws IOException;
+
+    /**
+     * @return the value of {@code key} or {@code null} if it is not stored.
+     */
+    Object get(String key) throws IOException;
+
+    /**
+     * Reads several keys at once, storages reading from disk look them up together.
+     *
+     * @return the stored values of {@code keys}, keys which are not stored are left out.
+     */
+    Map<String, Object> getMany(Collection<String> keys) throws IOException;
+
+    /**
+     * Visits the stored preferences from {@code fromKey} inclusive to {@code toKey} exclusive in
+     * {@link #KEY_ORDER}, until the visitor returns false.
+     *
+     * @param toKey    end of the range or {@code null} for no end.
+     * @param pageSize how many preferences the caller expects to visit at most, storages reading in
+     *                 pages use it as their page size.
+     */
+    void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) throws IOException;
+
+    /**
+     * @return every stored key.
+     */
+    List<String> keys() throws IOException;
+
+    /**
+     * Writes one batch of edits atomically, either all of them are persisted or none.
+     *
+     * @param changes    modified keys, a {@code null} value removes the key.
+     * @param clear      whether every stored preference is removed before applying {@code changes}.
+     * @param durability how hard the write works to survive crashes and power loss.
+     */
+    void write(Map<String, Object> changes, boolean clear, Durability durability) throws IOException;
+}
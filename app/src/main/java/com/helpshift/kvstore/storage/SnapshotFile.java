@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Immutable file of preferences sorted by key, read through a {@link MappedByteBuffer}:
+ * <pre>
+ * magic (int) | version (int) | file length (int) | entry count (int)
+ * entry offsets (int each, in key order)
+ * entries: key length (int) | UTF-8 key | value length (int) | {@link com.helpshift.kvstore.database.ValueCodec} value
+ * </pre>
+ * Keys are found by a binary search over the offsets which compares the mapped UTF-8 bytes
+ * directly, unsigned byte order being {@link PreferenceStorage#KEY_ORDER}. Only the pages touched
+ * by a lookup are read from disk and nothing is copied until a value is decoded.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x4B56534E;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private final MappedByteBuffer mBuffer;
+
+    private final int mCount;
+
+    private SnapshotFile(MappedByteBuffer buffer, int count) {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+    /**
+     * Maps a snapshot written by {@link #write(File, List, List)}.
+     *
+     * @throws IOException if the file is not a complete snapshot.
+     */
+    static SnapshotFile open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Truncated snapshot " + file);
+            }
+            /*The mapping stays valid after the channel is closed */
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int count = buffer.getInt(12);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != size
+                    || count < 0 || HEADER_SIZE + 4L * count > size) {
+                throw new IOException("Invalid snapshot " + file);
+            }
+            return new SnapshotFile(buffer, count);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot and syncs it to disk.
+     *
+     * @param keys   UTF-8 keys in {@link PreferenceStorage#KEY_ORDER}.
+     * @param values encoded values, in the order of their keys.
+     */
+    static void write(File file, List<byte[]> keys, List<byte[]> values) throws IOException {
+        int count = keys.size();
+        long length = HEADER_SIZE + 4L * count;
+        for (int i = 0; i < count; i++) {
+            length += 8 + keys.get(i).length + values.get(i).length;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot of " + length + " bytes is too large");
+        }
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt((int) length);
+            out.writeInt(count);
+            int offset = HEADER_SIZE + 4 * count;
+            for (int i = 0; i < count; i++) {
+                out.writeInt(offset);
+                offset += 8 + keys.get(i).length + values.get(i).length;
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(keys.get(i).length);
+                out.write(keys.get(i));
+                out.writeInt(values.get(i).length);
+                out.write(values.get(i));
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return index of {@code key} if it is in the snapshot, otherwise {@code -(insertion point) - 1}.
+     */
+    int search(byte[] key) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compareKey(mid, key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the first index whose key is not less than {@code key}.
+     */
+    int lowerBound(byte[] key) {
+        int index = search(key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    byte[] key(int index) {
+        int offset = entryOffset(index);
+        byte[] key = new byte[mBuffer.getInt(offset)];
+        read(offset + 4, key);
+        return key;
+    }
+
+    byte[] value(int index) {
+        int offset = entryOffset(index);
+        int valueOffset = offset + 4 + mBuffer.getInt(offset);
+        byte[] value = new byte[mBuffer.getInt(valueOffset)];
+        read(valueOffset + 4, value);
+        return value;
+    }
+
+    private int entryOffset(int index) {
+        return mBuffer.getInt(HEADER_SIZE + 4 * index);
+    }
+
+    /**
+     * Compares the key at {@code index} with {@code key} by unsigned bytes.
+     */
+    private int compareKey(int index, byte[] key) {
+        int offset = entryOffset(index);
+        int length = mBuffer.getInt(offset);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int compare = (mBuffer.get(offset + 4 + i) & 0xFF) - (key[i] & 0xFF);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return length - key.length;
+    }
+
+    private void read(int offset, byte[] destination) {
+        /*A duplicate has its own position, lookups on other threads need no lock */
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.get(destination);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.storage;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+import com.helpshift.kvstore.database.ValueCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers reads of another storage from a memory mapped {@link SnapshotFile} of its contents, so
+ * the first reads after a cold start are binary searches over mapped pages instead of queries.
+ * <p>
+ * Every write deletes the snapshot before it reaches the wrapped storage, reads go to the wrapped
+ * storage until a new snapshot is written in the background once no write happened for a quiet
+ * period. A snapshot file which exists therefore always matches the wrapped storage, as long as
+ * nothing else writes to it. Regenerating scans the whole store into memory and rewrites it, so
+ * a store written more often than its quiet period rarely has a snapshot; it suits stores read
+ * far more often than they are written.
+ * <p>
+ * The {@link ChangeLog} of the wrapped storage, if it has one, is passed through.
+ */
+public class SnapshotStorage implements PreferenceStorage, ChangeLog {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int REGENERATION_PAGE_SIZE = 256;
+
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 5000;
+
+    private static final long TIMER_KEEP_ALIVE_SECONDS = 30;
+
+    /*Waits out quiet periods, regenerations themselves run on the executor of their storage */
+    private static final ScheduledThreadPoolExecutor sQuietPeriodTimer = newQuietPeriodTimer();
+
+    private final PreferenceStorage mStorage;
+
+    private final File mFile;
+
+    private final File mTempFile;
+
+    private final Executor mExecutor;
+
+    private final Object mLock = new Object();
+
+    /*Guarded by mLock, equal while no write is in progress */
+    private long mWritesStarted;
+
+    private long mWritesFinished;
+
+    /*Guarded by mLock, whether a regeneration is queued or running */
+    private boolean mRegenerating;
+
+    /*Guarded by mLock, when the latest write finished */
+    private long mLastWriteNanos;
+
+    private volatile long mQuietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+    /*Null while the snapshot is out of date */
+    private volatile SnapshotFile mSnapshot;
+
+    private final Runnable mRegenerate = new Runnable() {
+        @Override
+        public void run() {
+            long writes;
+            boolean quiet;
+            synchronized (mLock) {
+                writes = mWritesStarted;
+                quiet = mWritesStarted == mWritesFinished;
+            }
+            try {
+                if (quiet) {
+                    regenerate(writes);
+                }
+            } catch (IOException | RuntimeException e) {
+                /*Reads keep going to the wrapped storage, the next write retries */
+                mTempFile.delete();
+            } finally {
+                boolean again;
+                synchronized (mLock) {
+                    mRegenerating = false;
+                    /*Writes finishing meanwhile didn't schedule, retry unless this attempt saw them already */
+                    again = mSnapshot == null && mWritesStarted == mWritesFinished
+                            && (!quiet || mWritesStarted != writes);
+                }
+                if (again) {
+                    scheduleRegeneration();
+                }
+            }
+        }
+    };
+
+    /*Hands the regeneration to the executor once the quiet period after the latest write is over */
+    private final Runnable mStartRegeneration = new Runnable() {
+        @Override
+        public void run() {
+            long waitMillis;
+            synchronized (mLock) {
+                waitMillis = remainingQuietMillis();
+            }
+            if (waitMillis > 0) {
+                /*Written since it was scheduled, still counts as regenerating */
+                sQuietPeriodTimer.schedule(this, waitMillis, TimeUnit.MILLISECONDS);
+            } else {
+                mExecutor.execute(mRegenerate);
+            }
+        }
+    };
+
+    /**
+     * @param executor regenerates the snapshot, must not be the thread writing the storage.
+     */
+    public SnapshotStorage(PreferenceStorage storage, File file, Executor executor) {
+        mStorage = storage;
+        mFile = file;
+        mTempFile = new File(file.getPath() + ".tmp");
+        mExecutor = executor;
+    }
+
+    /**
+     * Sets how long no write must happen before the snapshot is regenerated, 0 regenerates right
+     * after every write. Defaults to {@link #DEFAULT_QUIET_PERIOD_MILLIS}.
+     */
+    public void setQuietPeriod(long quietPeriodMillis) {
+        if (quietPeriodMillis < 0) {
+            throw new IllegalArgumentException("Invalid quiet period " + quietPeriodMillis);
+        }
+        mQuietPeriodMillis = quietPeriodMillis;
+    }
+
+    @Override
+    public void open() throws IOException {
+        mStorage.open();
+        mTempFile.delete();
+        if (mFile.exists()) {
+            try {
+                mSnapshot = SnapshotFile.open(mFile);
+            } catch (IOException e) {
+                mFile.delete();
+            }
+        }
+        if (mSnapshot == null) {
+            scheduleRegeneration();
+        }
+    }
+
+    /**
+     * @return whether reads are currently answered from the snapshot.
+     */
+    public boolean isSnapshotCurrent() {
+        return mSnapshot != null;
+    }
+
+    @Override
+    public Object get(String key) throws IOException {
+        SnapshotFile snapshot = mSnapshot;
+        if (snapshot == null) {
+            return mStorage.get(key);
+        }
+        int index = snapshot.search(key.getBytes(UTF_8));
+        return index < 0 ? null : ValueCodec.decode(snapshot.value(index));
+    }
+
+    @Override
+    public Map<String, Object> getMany(Collection<String> keys) throws IOException {
+        SnapshotFile snapshot = mSnapshot;
+        if (snapshot == null) {
+            return mStorage.getMany(keys);
+        }
+        Map<String, Object> values = new HashMap<>();
+        for (String key : keys) {
+            int index = snapshot.search(key.getBytes(UTF_8));
+            if (index >= 0) {
+                values.put(key, ValueCodec.decode(snapshot.value(index)));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor) throws IOException {
+        SnapshotFile snapshot = mSnapshot;
+        if (snapshot == null) {
+            mStorage.scan(fromKey, toKey, pageSize, visitor);
+            return;
+        }
+        for (int i = snapshot.lowerBound(fromKey.getBytes(UTF_8)); i < snapshot.size(); i++) {
+            String key = new String(snapshot.key(i), UTF_8);
+            if ((toKey != null && KEY_ORDER.compare(key, toKey) >= 0)
+                    || !visitor.visit(key, ValueCodec.decode(snapshot.value(i)))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<String> keys() throws IOException {
+        SnapshotFile snapshot = mSnapshot;
+        if (snapshot == null) {
+            return mStorage.keys();
+        }
+        List<String> keys = new ArrayList<>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            keys.add(new String(snapshot.key(i), UTF_8));
+        }
+        return keys;
+    }
+
+    @Override
+    public void write(Map<String, Object> changes, boolean clear, Durability durability) throws IOException {
+        synchronized (mLock) {
+            mWritesStarted++;
+            mSnapshot = null;
+            /*A snapshot left behind would be read after the next cold start */
+            if (mFile.exists() && !mFile.delete()) {
+                mWritesFinished++;
+                throw new IOException("Can't delete snapshot " + mFile);
+            }
+        }
+        try {
+            mStorage.write(changes, clear, durability);
+        } finally {
+            synchronized (mLock) {
+                mWritesFinished++;
+                mLastWriteNanos = System.nanoTime();
+            }
+            scheduleRegeneration();
+        }
+    }
+
+    @Override
+    public long lastSequence() throws IOException {
+        return changeLog().lastSequence();
+    }
+
+    @Override
+    public long changesSince(long sequence, int pageSize, PreferenceVisitor visitor) throws IOException {
+        return changeLog().changesSince(sequence, pageSize, visitor);
+    }
+
+    private ChangeLog changeLog() {
+        if (!(mStorage instanceof ChangeLog)) {
+            throw new UnsupportedOperationException(mStorage.getClass().getSimpleName() + " has no change log");
+        }
+        return (ChangeLog) mStorage;
+    }
+
+    private void scheduleRegeneration() {
+        long waitMillis;
+        synchronized (mLock) {
+            if (mRegenerating || mWritesStarted != mWritesFinished) {
+                return;
+            }
+            mRegenerating = true;
+            waitMillis = remainingQuietMillis();
+        }
+        if (waitMillis > 0) {
+            sQuietPeriodTimer.schedule(mStartRegeneration, waitMillis, TimeUnit.MILLISECONDS);
+        } else {
+            mExecutor.execute(mRegenerate);
+        }
+    }
+
+    /**
+     * Must be called holding mLock.
+     *
+     * @return how long until the quiet period after the latest write is over, 0 if it is.
+     */
+    private long remainingQuietMillis() {
+        if (mWritesFinished == 0) {
+            return 0;
+        }
+        long quietMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mLastWriteNanos);
+        return Math.max(mQuietPeriodMillis - quietMillis, 0);
+    }
+
+    private static ScheduledThreadPoolExecutor newQuietPeriodTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+        /*Only runs while regenerations wait */
+        timer.setKeepAliveTime(TIMER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        return timer;
+    }
+
+    /**
+     * Writes a snapshot of the wrapped storage and switches reads to it, unless a write started
+     * since {@code writes} were counted.
+     */
+    private void regenerate(long writes) throws IOException {
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        mStorage.scan("", null, REGENERATION_PAGE_SIZE, new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                keys.add(key.getBytes(UTF_8));
+                values.add(ValueCodec.encode(value));
+                return true;
+            }
+        });
+        SnapshotFile.write(mTempFile, keys, values);
+        synchronized (mLock) {
+            if (mWritesStarted != writes) {
+                mTempFile.delete();
+                return;
+            }
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("Can't rename " + mTempFile + " to " + mFile);
+            }
+            mSnapshot = SnapshotFile.open(mFile);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.storage;
+
+/**
+ * Implemented by storages which other processes write as well. Values read from such a storage may
+ * only be cached while its data version is unchanged.
+ */
+public interface VersionedStorage {
+
+    /**
+     * @return version of the stored data, changed by every write of any process. Cheap enough to
+     * be checked before every read from memory.
+     */
+    int dataVersion();
+
+    /**
+     * @return the data version produced by the latest write of this instance, called on the
+     * writing thread after {@link PreferenceStorage#write} returned.
+     */
+    int lastWrittenVersion();
+}
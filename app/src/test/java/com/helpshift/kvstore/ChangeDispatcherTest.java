@@ -0,0 +1,120 @@
+package com.helpshift.kvstore;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeDispatcherTest {
+
+    private final ChangeDispatcher mDispatcher = new ChangeDispatcher(null, new StoreMetrics());
+
+    /*Deliveries run when the test releases them, like a busy main thread */
+    private final List<Runnable> mQueued = new ArrayList<>();
+
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    @Test
+    public void deliversOneChangeSetPerBatch() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        mDispatcher.register(listener, ChangeFilter.allKeys(), ChangeExecutors.writerThread());
+        mDispatcher.dispatch(keys("a", "b", "c"), false);
+        mDispatcher.dispatch(keys("d"), true);
+        assertEquals(2, listener.mChangeSets.size());
+        assertEquals(keys("a", "b", "c"), listener.mChangeSets.get(0).getKeys());
+        assertTrue(listener.mChangeSets.get(1).isCleared());
+    }
+
+    @Test
+    public void filtersByKeyAndPrefix() throws Exception {
+        RecordingListener byKey = new RecordingListener();
+        RecordingListener byPrefix = new RecordingListener();
+        mDispatcher.register(byKey, ChangeFilter.keys("user.name"), ChangeExecutors.writerThread());
+        mDispatcher.register(byPrefix, ChangeFilter.prefixes("settings."), ChangeExecutors.writerThread());
+        mDispatcher.dispatch(keys("user.name", "user.age"), false);
+        mDispatcher.dispatch(keys("settings.theme", "settings.sound", "user.age"), false);
+        mDispatcher.dispatch(keys("other"), false);
+
+        assertEquals(1, byKey.mChangeSets.size());
+        assertEquals(keys("user.name"), byKey.mChangeSets.get(0).getKeys());
+        assertEquals(1, byPrefix.mChangeSets.size());
+        assertEquals(keys("settings.theme", "settings.sound"), byPrefix.mChangeSets.get(0).getKeys());
+    }
+
+    @Test
+    public void coalescesWhileDeliveryIsQueued() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        mDispatcher.register(listener, ChangeFilter.allKeys(), mExecutor);
+        for (int i = 0; i < 200; i++) {
+            mDispatcher.dispatch(keys("key" + i), false);
+        }
+        assertEquals(1, mQueued.size());
+        mQueued.remove(0).run();
+        assertEquals(1, listener.mChangeSets.size());
+        assertEquals(200, listener.mChangeSets.get(0).getKeys().size());
+
+        mDispatcher.dispatch(keys("later"), false);
+        assertEquals(1, mQueued.size());
+    }
+
+    @Test
+    public void unregisterDropsQueuedChangeSets() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        mDispatcher.register(listener, ChangeFilter.allKeys(), mExecutor);
+        mDispatcher.dispatch(keys("a"), false);
+        mDispatcher.unregister(listener);
+        mDispatcher.dispatch(keys("b"), false);
+        for (Runnable runnable : mQueued) {
+            runnable.run();
+        }
+        assertTrue(listener.mChangeSets.isEmpty());
+    }
+
+    @Test
+    public void legacyListenerIsCalledPerKey() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                        calls.add(key);
+                    }
+                };
+        mDispatcher.registerLegacy(listener);
+        mDispatcher.registerLegacy(listener);
+        mDispatcher.dispatch(keys("a", "b"), false);
+        assertEquals(Arrays.asList("a", "b"), calls);
+        mDispatcher.unregisterLegacy(listener);
+        mDispatcher.dispatch(keys("c"), false);
+        assertEquals(2, calls.size());
+    }
+
+    private static Set<String> keys(String... keys) {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(keys)));
+    }
+
+    private static class RecordingListener implements ChangeListener {
+
+        final List<ChangeSet> mChangeSets = new ArrayList<>();
+
+        @Override
+        public void onPreferencesChanged(SharedPreferences sharedPreferences, ChangeSet changeSet) {
+            mChangeSets.add(changeSet);
+        }
+    }
+}
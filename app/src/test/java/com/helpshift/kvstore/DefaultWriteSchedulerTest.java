@@ -0,0 +1,170 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultWriteSchedulerTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /*Released by the test, keeps the writer of a store busy until then */
+    private final CountDownLatch mGate = new CountDownLatch(1);
+
+    private final CountDownLatch mBlocked = new CountDownLatch(1);
+
+    private final Runnable mBlocker = new Runnable() {
+        @Override
+        public void run() {
+            mBlocked.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+
+    @Test
+    public void runsByPriorityThenInOrder() throws Exception {
+        DefaultWriteScheduler scheduler = DefaultWriteScheduler.sharedPool(1, 16);
+        blockStore(scheduler, "store");
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.execute("store", WriteScheduler.PRIORITY_LOW, record(ran, "low"));
+        scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, record(ran, "normal1"));
+        scheduler.execute("store", WriteScheduler.PRIORITY_HIGH, record(ran, "high1"));
+        scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, record(ran, "normal2"));
+        scheduler.execute("store", WriteScheduler.PRIORITY_HIGH, record(ran, "high2"));
+        assertEquals(5, scheduler.getQueueDepth("store"));
+
+        mGate.countDown();
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+        assertEquals(Arrays.asList("high1", "high2", "normal1", "normal2", "low"), ran);
+        assertEquals(0, scheduler.getQueueDepth("store"));
+    }
+
+    @Test
+    public void runsOneTaskOfAStoreAtATime() throws Exception {
+        DefaultWriteScheduler scheduler = DefaultWriteScheduler.sharedPool(4, 64);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        for (int i = 0; i < 50; i++) {
+            scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, new Runnable() {
+                @Override
+                public void run() {
+                    if (running.incrementAndGet() > 1) {
+                        overlapped.set(true);
+                    }
+                    Thread.yield();
+                    running.decrementAndGet();
+                }
+            });
+        }
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+        assertFalse(overlapped.get());
+    }
+
+    @Test
+    public void otherStoresRunWhileOneIsBusy() throws Exception {
+        DefaultWriteScheduler scheduler = DefaultWriteScheduler.sharedPool(2, 16);
+        blockStore(scheduler, "busy");
+        final CountDownLatch ran = new CountDownLatch(1);
+        scheduler.execute("idle", WriteScheduler.PRIORITY_NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        mGate.countDown();
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void executeBlocksWhileQueueIsFull() throws Exception {
+        final DefaultWriteScheduler scheduler = DefaultWriteScheduler.sharedPool(1, 2);
+        blockStore(scheduler, "store");
+        final AtomicInteger ran = new AtomicInteger();
+        final Runnable count = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+        scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, count);
+        scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, count);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, count);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        assertEquals(2, scheduler.getQueueDepth("store"));
+
+        mGate.countDown();
+        producer.join(TIMEOUT_MILLIS);
+        assertFalse(producer.isAlive());
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+        assertEquals(3, ran.get());
+    }
+
+    @Test
+    public void drainTimesOutWhileTasksRun() throws Exception {
+        DefaultWriteScheduler scheduler = DefaultWriteScheduler.sharedPool(1, 16);
+        blockStore(scheduler, "store");
+        assertFalse(scheduler.drain(50));
+        mGate.countDown();
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void failingTaskDoesNotStallQueue() throws Exception {
+        DefaultWriteScheduler scheduler = DefaultWriteScheduler.sharedPool(1, 16);
+        final CountDownLatch ran = new CountDownLatch(1);
+        scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("write failed");
+            }
+        });
+        scheduler.execute("store", WriteScheduler.PRIORITY_NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Occupies the writer of {@code preferenceName} until {@link #mGate} is released.
+     */
+    private void blockStore(WriteScheduler scheduler, String preferenceName) throws InterruptedException {
+        scheduler.execute(preferenceName, WriteScheduler.PRIORITY_HIGH, mBlocker);
+        assertTrue(mBlocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static Runnable record(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitterTest {
+
+    /*Urgency of every flush request, in order */
+    private final List<Boolean> mFlushRequests = Collections.synchronizedList(new ArrayList<Boolean>());
+
+    private final CountDownLatch mFirstFlush = new CountDownLatch(1);
+
+    private final GroupCommitter mCommitter = new GroupCommitter(new GroupCommitter.FlushTrigger() {
+        @Override
+        public void onFlushRequested(boolean urgent) {
+            mFlushRequests.add(urgent);
+            mFirstFlush.countDown();
+        }
+    });
+
+    @Test
+    public void laterApplyWins() throws Exception {
+        mCommitter.setPolicy(TimeUnit.MINUTES.toMillis(1), 500);
+        mCommitter.enqueue(changes("a", "1", "b", "1"), false);
+        mCommitter.enqueue(changes("a", "2"), false);
+        mCommitter.enqueue(changes("b", null), false);
+        assertEquals("2", mCommitter.unwrittenValue("a"));
+        assertNull(mCommitter.unwrittenValue("b"));
+        assertSame(GroupCommitter.UNCHANGED, mCommitter.unwrittenValue("c"));
+
+        GroupCommitter.Batch batch = mCommitter.drain();
+        assertEquals(changes("a", "2", "b", null), batch.getChanges());
+        assertFalse(batch.isClear());
+    }
+
+    @Test
+    public void clearDropsEarlierEditsButKeepsLaterOnes() throws Exception {
+        mCommitter.setPolicy(TimeUnit.MINUTES.toMillis(1), 500);
+        mCommitter.enqueue(changes("a", "1", "b", "1"), false);
+        mCommitter.enqueue(changes("c", "1"), true);
+        mCommitter.enqueue(changes("a", "2"), false);
+        assertEquals("2", mCommitter.unwrittenValue("a"));
+        assertNull(mCommitter.unwrittenValue("b"));
+        assertEquals("1", mCommitter.unwrittenValue("c"));
+        /*Keys in the database are cleared too */
+        assertNull(mCommitter.unwrittenValue("d"));
+
+        GroupCommitter.Batch batch = mCommitter.drain();
+        assertTrue(batch.isClear());
+        assertEquals(changes("c", "1", "a", "2"), batch.getChanges());
+    }
+
+    @Test
+    public void unwrittenValueLooksAtPendingThenInFlightBatch() throws Exception {
+        mCommitter.setPolicy(TimeUnit.MINUTES.toMillis(1), 500);
+        mCommitter.enqueue(changes("a", "1", "b", "1"), false);
+        mCommitter.drain();
+        mCommitter.enqueue(changes("a", "2"), false);
+        assertEquals("2", mCommitter.unwrittenValue("a"));
+        assertEquals("1", mCommitter.unwrittenValue("b"));
+        assertEquals(changes("a", "2", "b", "1"), mCommitter.unwritten().getChanges());
+
+        mCommitter.onWritten(true);
+        assertEquals("2", mCommitter.unwrittenValue("a"));
+        assertSame(GroupCommitter.UNCHANGED, mCommitter.unwrittenValue("b"));
+        assertEquals(1, mCommitter.writtenBatches());
+
+        mCommitter.enqueue(Collections.<String, Object>emptyMap(), true);
+        assertNull(mCommitter.unwrittenValue("b"));
+    }
+
+    @Test
+    public void requestsOneFlushPerBatch() throws Exception {
+        mCommitter.setPolicy(0, 500);
+        mCommitter.enqueue(changes("a", "1"), false);
+        mCommitter.enqueue(changes("b", "1"), false);
+        mCommitter.flush(true);
+        assertEquals(Collections.singletonList(false), mFlushRequests);
+
+        assertEquals(2, mCommitter.drain().size());
+        /*Nothing pending, nothing to flush */
+        mCommitter.flush(true);
+        assertEquals(1, mFlushRequests.size());
+
+        mCommitter.enqueue(changes("c", "1"), false);
+        assertEquals(2, mFlushRequests.size());
+    }
+
+    @Test
+    public void flushesFullBatchBeforeItsWindow() throws Exception {
+        mCommitter.setPolicy(TimeUnit.MINUTES.toMillis(1), 3);
+        mCommitter.enqueue(changes("a", "1", "b", "1"), false);
+        mCommitter.enqueue(changes("a", "2"), false);
+        assertTrue(mFlushRequests.isEmpty());
+
+        mCommitter.enqueue(changes("c", "1"), false);
+        assertEquals(Collections.singletonList(false), mFlushRequests);
+
+        mCommitter.flush(true);
+        assertEquals(1, mFlushRequests.size());
+    }
+
+    @Test
+    public void flushesWhenWindowElapses() throws Exception {
+        mCommitter.setPolicy(20, 500);
+        mCommitter.enqueue(changes("a", "1"), false);
+        assertTrue(mFirstFlush.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(false), mFlushRequests);
+        assertEquals(1, mCommitter.drain().size());
+    }
+
+    @Test
+    public void failedWriteReleasesWaiters() throws Exception {
+        mCommitter.setPolicy(TimeUnit.MINUTES.toMillis(1), 500);
+        final GroupCommitter.Batch batch = mCommitter.enqueue(changes("a", "1"), false);
+        final AtomicBoolean persisted = new AtomicBoolean(true);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                persisted.set(batch.await());
+            }
+        });
+        waiter.start();
+
+        assertSame(batch, mCommitter.drain());
+        mCommitter.onWritten(false);
+        waiter.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(waiter.isAlive());
+        assertFalse(persisted.get());
+        assertSame(GroupCommitter.UNCHANGED, mCommitter.unwrittenValue("a"));
+    }
+
+    private static Map<String, Object> changes(String... keysAndValues) {
+        Map<String, Object> changes = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            changes.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,72 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    private final Histogram mHistogram = new Histogram();
+
+    @Test
+    public void bucketsCoverEveryValueOnce() throws Exception {
+        long previous = -1;
+        for (int bucket = 0; bucket < Histogram.BUCKETS; bucket++) {
+            long highest = Histogram.highestValueIn(bucket);
+            assertEquals(bucket, Histogram.bucketOf(previous + 1));
+            assertEquals(bucket, Histogram.bucketOf(highest));
+            previous = highest;
+        }
+        assertEquals(Histogram.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() throws Exception {
+        for (long value = 1; value <= 100000; value++) {
+            mHistogram.record(value * 1000);
+        }
+        MetricsSnapshot.Distribution distribution = mHistogram.snapshot();
+        assertEquals(100000, distribution.getCount());
+        assertEquals(100000000, distribution.getMax());
+        assertEquals(50000500, distribution.getMean(), 1);
+        assertWithin(50000000, distribution.getPercentile(50));
+        assertWithin(99000000, distribution.getPercentile(99));
+        assertEquals(100000000, distribution.getPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() throws Exception {
+        mHistogram.record(-5);
+        mHistogram.record(Long.MAX_VALUE);
+        MetricsSnapshot.Distribution distribution = mHistogram.snapshot();
+        assertEquals(0, distribution.getPercentile(50));
+        assertEquals(Histogram.MAX_VALUE, distribution.getMax());
+    }
+
+    @Test
+    public void stripedCounterSumsEveryThread() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, counter.sum());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 1/" + Histogram.SUB_BUCKETS + " above " + expected,
+                actual >= expected && actual <= expected + expected / Histogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,42 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HotKeysTest {
+
+    @Test
+    public void frequentKeysSurviveManyRareOnes() throws Exception {
+        HotKeys hotKeys = new HotKeys(42);
+        for (int i = 0; i < 100000; i++) {
+            hotKeys.onRead(i % 2 == 0 ? "hot" : i % 4 == 1 ? "warm" : "rare" + i);
+        }
+        List<MetricsSnapshot.HotKey> top = hotKeys.top(2);
+        assertEquals(2, top.size());
+        assertEquals("hot", top.get(0).getKey());
+        assertEquals("warm", top.get(1).getKey());
+        /*50000 and 25000 reads, estimated from a sample */
+        assertTrue(top.get(0).getReads() > 40000 && top.get(0).getReads() < 60000);
+        assertTrue(top.get(1).getReads() > 20000 && top.get(1).getReads() < 30000);
+        assertTrue(top.get(0).getReadsPerSecond() > 0);
+    }
+
+    @Test
+    public void slowOperationsAreKeptLatestFirst() throws Exception {
+        SlowOperationLog log = new SlowOperationLog();
+        long slow = SlowOperationLog.THRESHOLD_NANOS;
+        log.record("get", "fast", slow - 1);
+        for (int i = 0; i < SlowOperationLog.CAPACITY + 5; i++) {
+            log.record("commit", i, slow + TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        List<MetricsSnapshot.SlowOperation> recent = log.recent();
+        assertEquals(SlowOperationLog.CAPACITY, recent.size());
+        assertEquals(Integer.toString(SlowOperationLog.CAPACITY + 4), recent.get(0).getSubject());
+        assertEquals("5", recent.get(recent.size() - 1).getSubject());
+    }
+}
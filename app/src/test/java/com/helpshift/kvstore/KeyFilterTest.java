@@ -0,0 +1,34 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class KeyFilterTest {
+
+    @Test
+    public void addedKeysAlwaysMatch() throws Exception {
+        KeyFilter keyFilter = new KeyFilter(1000);
+        for (int i = 0; i < 1000; i++) {
+            keyFilter.add("feature." + i + ".enabled");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(keyFilter.mightContain("feature." + i + ".enabled"));
+        }
+    }
+
+    @Test
+    public void absentKeysRarelyMatch() throws Exception {
+        KeyFilter keyFilter = new KeyFilter(1000);
+        for (int i = 0; i < 1000; i++) {
+            keyFilter.add("feature." + i + ".enabled");
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (keyFilter.mightContain("flag." + i + ".missing")) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives " + falsePositives, falsePositives < 300);
+    }
+}
@@ -0,0 +1,58 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreferenceDeltaTest {
+
+    @Test
+    public void diffClassifiesChangedKeys() throws Exception {
+        Map<String, String> base = new HashMap<>();
+        base.put("same", "1");
+        base.put("updated", "1");
+        base.put("removed", "1");
+        Map<String, String> current = new HashMap<>();
+        current.put("same", "1");
+        current.put("updated", "2");
+        current.put("removed", null);
+        current.put("inserted", "1");
+        current.put("neverSet", null);
+
+        PreferenceDelta delta = PreferenceDelta.diff(3, base, current, base);
+        assertFalse(delta.isFull());
+        assertEquals(4, delta.getVersion());
+        assertEquals(Collections.singletonMap("inserted", "1"), delta.getInserted());
+        assertEquals(Collections.singletonMap("updated", "2"), delta.getUpdated());
+        assertEquals(Collections.singleton("removed"), delta.getRemoved());
+
+        delta.applyTo(base);
+        Map<String, String> expected = new HashMap<>();
+        expected.put("same", "1");
+        expected.put("updated", "2");
+        expected.put("inserted", "1");
+        assertEquals(expected, base);
+    }
+
+    @Test
+    public void fullDeltaReplacesEverything() throws Exception {
+        Map<String, String> data = new HashMap<>();
+        data.put("old", "1");
+        PreferenceDelta delta = PreferenceDelta.full(0, Collections.singletonMap("new", "1"), data);
+        assertTrue(delta.isFull());
+        delta.applyTo(data);
+        assertEquals(Collections.singletonMap("new", "1"), data);
+    }
+
+    @Test
+    public void unchangedKeysMakeAnEmptyDelta() throws Exception {
+        Map<String, String> base = Collections.singletonMap("key", "1");
+        assertTrue(PreferenceDelta.diff(0, base, base, base).isEmpty());
+    }
+}
@@ -0,0 +1,36 @@
+package com.helpshift.kvstore;
+
+import com.helpshift.kvstore.database.SQLiteDatabaseHelper;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ShardingPolicyTest {
+
+    @Test
+    public void singleFileKeepsTheDefaultDatabase() throws Exception {
+        assertEquals(SQLiteDatabaseHelper.DATABASE_NAME, ShardingPolicy.singleFile().databaseName("store"));
+    }
+
+    @Test
+    public void filePerStoreSeparatesStores() throws Exception {
+        ShardingPolicy policy = ShardingPolicy.filePerStore();
+        assertNotEquals(policy.databaseName("store1"), policy.databaseName("store2"));
+        assertEquals(policy.databaseName("store1"), policy.databaseName("store1"));
+    }
+
+    @Test
+    public void hashedUsesAtMostShardCountFiles() throws Exception {
+        ShardingPolicy policy = ShardingPolicy.hashed(4);
+        Set<String> databaseNames = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            databaseNames.add(policy.databaseName("store" + i));
+        }
+        assertEquals(4, databaseNames.size());
+    }
+}
@@ -0,0 +1,44 @@
+package com.helpshift.kvstore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValueCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondBudget() throws Exception {
+        int entrySize = ValueCache.sizeOf("key0", "value0");
+        ValueCache cache = new ValueCache(entrySize * 3);
+        cache.put("key0", "value0");
+        cache.put("key1", "value1");
+        cache.put("key2", "value2");
+        cache.get("key0");
+        cache.put("key3", "value3");
+
+        assertNull(cache.get("key1"));
+        assertEquals("value0", cache.get("key0"));
+        assertEquals(1, cache.evictionCount());
+        assertTrue(cache.sizeBytes() <= entrySize * 3);
+    }
+
+    @Test
+    public void trimKeepsBudgetAndClearIsNoEviction() throws Exception {
+        ValueCache cache = new ValueCache(Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, i);
+        }
+        cache.trimToSize(0);
+        assertEquals(0, cache.sizeBytes());
+        assertEquals(100, cache.evictionCount());
+        assertEquals(Long.MAX_VALUE, cache.getMaxBytes());
+
+        cache.put("key", "value");
+        cache.clear();
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.sizeBytes());
+        assertEquals(100, cache.evictionCount());
+    }
+}
@@ -0,0 +1,36 @@
+package com.helpshift.kvstore.database;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreferencesContentTest {
+
+    @Test
+    public void keyOrderMatchesUtf8ByteOrder() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        List<String> keys = Arrays.asList("", "a", "a.b", "a\u0000", "ab", "z", "\u00e9", "\ud7ff", "\ue000",
+                "\uffff", "\ud83d\ude00", "\ud83d\ude00a", "a\ud83d\ude00", "a\uffff");
+        for (String lhs : keys) {
+            for (String rhs : keys) {
+                byte[] l = lhs.getBytes(utf8);
+                byte[] r = rhs.getBytes(utf8);
+                assertEquals(lhs + " vs " + rhs, Integer.signum(compareBytes(l, r)),
+                        Integer.signum(PreferencesContent.KEY_ORDER.compare(lhs, rhs)));
+            }
+        }
+    }
+
+    private static int compareBytes(byte[] lhs, byte[] rhs) {
+        for (int i = 0; i < Math.min(lhs.length, rhs.length); i++) {
+            if (lhs[i] != rhs[i]) {
+                return (lhs[i] & 0xff) - (rhs[i] & 0xff);
+            }
+        }
+        return lhs.length - rhs.length;
+    }
+}
@@ -0,0 +1,36 @@
+package com.helpshift.kvstore.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValueCodecTest {
+
+    @Test
+    public void primitivesRoundTrip() throws Exception {
+        Object[] values = {"", "value", "\u00fcnic\u00f8de", 0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                0L, Long.MAX_VALUE, Long.MIN_VALUE, 0f, -1.5f, Float.NaN, Float.MAX_VALUE, true, false};
+        for (Object value : values) {
+            assertEquals(value, ValueCodec.decode(ValueCodec.encode(value)));
+        }
+    }
+
+    @Test
+    public void stringSetRoundTrip() throws Exception {
+        Set<String> values = new HashSet<>(Arrays.asList("a", "", ":-:", "tag:-:with separator", "\u00fcnic\u00f8de"));
+        assertEquals(values, ValueCodec.decode(ValueCodec.encode(values)));
+        assertEquals(new HashSet<String>(), ValueCodec.decode(ValueCodec.encode(new HashSet<String>())));
+    }
+
+    @Test
+    public void smallIntegersAreCompact() throws Exception {
+        assertEquals(2, ValueCodec.encode(5).length);
+        assertEquals(2, ValueCodec.encode(-5).length);
+        assertEquals(1, ValueCodec.encode(true).length);
+        assertEquals(5, ValueCodec.encode(1.5f).length);
+    }
+}
@@ -0,0 +1,28 @@
+package com.helpshift.kvstore.provider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class GenerationFileTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void incrementIsSeenThroughOtherMappings() throws Exception {
+        File file = new File(mFolder.getRoot(), "prefs.generation");
+        GenerationFile writer = GenerationFile.open(file);
+        /*Like a second process mapping the same file */
+        GenerationFile reader = GenerationFile.open(file);
+        assertEquals(0, reader.get());
+        assertEquals(1, writer.increment());
+        assertEquals(2, writer.increment());
+        assertEquals(2, reader.get());
+        assertEquals(2, GenerationFile.open(file).get());
+    }
+}
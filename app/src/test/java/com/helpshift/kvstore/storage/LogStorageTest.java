@@ -0,0 +1,187 @@
+package com.helpshift.kvstore.storage;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogStorageTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    private LogStorage mStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mFolder.getRoot(), "prefs.log");
+        mStorage = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStorage.close();
+    }
+
+    @Test
+    public void valuesSurviveReopen() throws Exception {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("string", "value");
+        changes.put("int", 42);
+        changes.put("long", Long.MAX_VALUE);
+        changes.put("float", 1.5f);
+        changes.put("boolean", true);
+        changes.put("set", Collections.unmodifiableSet(new HashSet<>(Arrays.asList("a", "b"))));
+        mStorage.write(changes, false, Durability.FULL);
+        mStorage.write(Collections.<String, Object>singletonMap("int", null), false, Durability.MEMORY);
+
+        reopen();
+        changes.remove("int");
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            assertEquals(entry.getValue(), mStorage.get(entry.getKey()));
+        }
+        assertNull(mStorage.get("int"));
+        assertEquals(changes.size(), mStorage.keys().size());
+    }
+
+    @Test
+    public void getManyLeavesOutMissingKeys() throws Exception {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("a", "1");
+        changes.put("b", 2);
+        mStorage.write(changes, false, Durability.FULL);
+        assertEquals(changes, mStorage.getMany(Arrays.asList("a", "b", "missing")));
+        assertTrue(mStorage.getMany(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void clearRemovesEarlierKeys() throws Exception {
+        mStorage.write(Collections.<String, Object>singletonMap("old", "value"), false, Durability.FULL);
+        mStorage.write(Collections.<String, Object>singletonMap("new", "value"), true, Durability.FULL);
+        reopen();
+        assertEquals(Collections.singletonList("new"), mStorage.keys());
+    }
+
+    @Test
+    public void tornTailIsDropped() throws Exception {
+        mStorage.write(Collections.<String, Object>singletonMap("kept", "value"), false, Durability.FULL);
+        long intact = mFile.length();
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("lost1", "value");
+        batch.put("lost2", "value");
+        mStorage.write(batch, false, Durability.FULL);
+        mStorage.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(mFile.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        mStorage = open();
+        assertEquals(Collections.singletonList("kept"), mStorage.keys());
+        assertEquals(intact, mFile.length());
+        mStorage.write(Collections.<String, Object>singletonMap("after", "value"), false, Durability.FULL);
+        reopen();
+        assertEquals(Arrays.asList("after", "kept"), mStorage.keys());
+    }
+
+    @Test
+    public void corruptRecordEndsTheLog() throws Exception {
+        mStorage.write(Collections.<String, Object>singletonMap("kept", "value"), false, Durability.FULL);
+        long intact = mFile.length();
+        mStorage.write(Collections.<String, Object>singletonMap("corrupt", "value"), false, Durability.FULL);
+        mStorage.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(mFile.length() - 1);
+            file.write('X');
+        } finally {
+            file.close();
+        }
+
+        mStorage = open();
+        assertEquals(Collections.singletonList("kept"), mStorage.keys());
+        assertEquals(intact, mFile.length());
+    }
+
+    @Test
+    public void compactionKeepsLiveEntries() throws Exception {
+        mStorage.setCompactionPolicy(0.5, 0);
+        for (int round = 0; round < 20; round++) {
+            Map<String, Object> changes = new HashMap<>();
+            for (int i = 0; i < 50; i++) {
+                changes.put("key" + i, i % 10 == 0 && round == 19 ? null : "value" + round);
+            }
+            mStorage.write(changes, false, Durability.MEMORY);
+        }
+        assertTrue(mStorage.getDeadBytes() <= mStorage.getSize() / 2);
+        assertTrue(mStorage.getSize() == mFile.length());
+
+        reopen();
+        assertEquals(45, mStorage.keys().size());
+        assertEquals("value19", mStorage.get("key1"));
+        assertNull(mStorage.get("key10"));
+    }
+
+    @Test
+    public void scanVisitsRangeInKeyOrder() throws Exception {
+        Map<String, Object> changes = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            changes.put(String.format("key%02d", i), i);
+        }
+        mStorage.write(changes, false, Durability.FULL);
+        final List<String> visited = new ArrayList<>();
+        mStorage.scan("key05", "key25", 7, new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                assertEquals(Integer.parseInt(key.substring(3)), value);
+                visited.add(key);
+                return true;
+            }
+        });
+        assertEquals(20, visited.size());
+        assertEquals("key05", visited.get(0));
+        assertEquals("key24", visited.get(19));
+    }
+
+    private void reopen() throws Exception {
+        mStorage.close();
+        mStorage = open();
+    }
+
+    private LogStorage open() throws Exception {
+        LogStorage storage = new LogStorage(mFile, DIRECT);
+        storage.open();
+        return storage;
+    }
+}
@@ -0,0 +1,237 @@
+package com.helpshift.kvstore.storage;
+
+import com.helpshift.kvstore.Durability;
+import com.helpshift.kvstore.PreferenceVisitor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStorageTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /*Regenerations run when the test releases them, queued by the quiet period timer too */
+    private final List<Runnable> mQueued = Collections.synchronizedList(new ArrayList<Runnable>());
+
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    private LogStorage mLogStorage;
+
+    private SnapshotStorage mStorage;
+
+    /*Run by the wrapped storage when a scan starts, like a write landing during regeneration */
+    private Runnable mDuringScan;
+
+    private File mSnapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mSnapshotFile = new File(mFolder.getRoot(), "prefs.snapshot");
+        open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mLogStorage.close();
+    }
+
+    @Test
+    public void readsComeFromSnapshotOnceRegenerated() throws Exception {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("string", "value");
+        changes.put("int", 7);
+        changes.put("\uD83D\uDE00", "supplementary");
+        changes.put("\uE000", "bmp");
+        mStorage.write(changes, false, Durability.FULL);
+        assertFalse(mStorage.isSnapshotCurrent());
+        assertEquals("value", mStorage.get("string"));
+
+        runQueued();
+        assertTrue(mStorage.isSnapshotCurrent());
+        assertTrue(mSnapshotFile.exists());
+        mLogStorage.close();
+        /*Answered without the log */
+        assertEquals("value", mStorage.get("string"));
+        assertEquals(7, mStorage.get("int"));
+        assertEquals("supplementary", mStorage.get("\uD83D\uDE00"));
+        assertNull(mStorage.get("missing"));
+        assertEquals(Arrays.asList("int", "string", "\uE000", "\uD83D\uDE00"), mStorage.keys());
+    }
+
+    @Test
+    public void writeDeletesSnapshotBeforeReachingStorage() throws Exception {
+        mStorage.write(Collections.<String, Object>singletonMap("key", "old"), false, Durability.FULL);
+        runQueued();
+        assertTrue(mStorage.isSnapshotCurrent());
+
+        mStorage.write(Collections.<String, Object>singletonMap("key", "new"), false, Durability.FULL);
+        assertFalse(mStorage.isSnapshotCurrent());
+        assertFalse(mSnapshotFile.exists());
+        assertEquals("new", mStorage.get("key"));
+
+        reopen();
+        assertEquals("new", mStorage.get("key"));
+        runQueued();
+        assertTrue(mStorage.isSnapshotCurrent());
+        assertEquals("new", mStorage.get("key"));
+    }
+
+    @Test
+    public void snapshotIsReadAfterReopen() throws Exception {
+        Map<String, Object> changes = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            changes.put(String.format("key%03d", i), i);
+        }
+        mStorage.write(changes, false, Durability.FULL);
+        runQueued();
+        reopen();
+        assertTrue(mStorage.isSnapshotCurrent());
+        assertTrue(mQueued.isEmpty());
+        final List<String> visited = new ArrayList<>();
+        mStorage.scan("key010", "key020", 256, new PreferenceVisitor() {
+            @Override
+            public boolean visit(String key, Object value) {
+                assertEquals(Integer.parseInt(key.substring(3)), value);
+                visited.add(key);
+                return true;
+            }
+        });
+        assertEquals(10, visited.size());
+        assertEquals("key010", visited.get(0));
+    }
+
+    @Test
+    public void writesWhileQueuedShareOneRegeneration() throws Exception {
+        mStorage.write(Collections.<String, Object>singletonMap("first", "value"), false, Durability.FULL);
+        mStorage.write(Collections.<String, Object>singletonMap("second", "value"), false, Durability.FULL);
+        assertEquals(1, mQueued.size());
+        runQueued();
+        assertTrue(mStorage.isSnapshotCurrent());
+        assertEquals(Arrays.asList("first", "second"), mStorage.keys());
+    }
+
+    @Test
+    public void regenerationRacingWriteIsDiscarded() throws Exception {
+        mStorage.write(Collections.<String, Object>singletonMap("key", "old"), false, Durability.FULL);
+        mDuringScan = new Runnable() {
+            @Override
+            public void run() {
+                mDuringScan = null;
+                try {
+                    mStorage.write(Collections.<String, Object>singletonMap("key", "new"), false, Durability.FULL);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        mQueued.remove(0).run();
+        assertFalse(mStorage.isSnapshotCurrent());
+        assertEquals(1, mQueued.size());
+        runQueued();
+        assertTrue(mStorage.isSnapshotCurrent());
+        assertEquals("new", mStorage.get("key"));
+    }
+
+    @Test
+    public void regeneratesOnceWritesAreQuiet() throws Exception {
+        /*Snapshot of the empty store */
+        runQueued();
+        mStorage.setQuietPeriod(100);
+        mStorage.write(Collections.<String, Object>singletonMap("first", "value"), false, Durability.FULL);
+        Thread.sleep(50);
+        long lastWrite = System.nanoTime();
+        mStorage.write(Collections.<String, Object>singletonMap("second", "value"), false, Durability.FULL);
+        assertTrue(mQueued.isEmpty());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mQueued.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, mQueued.size());
+        assertTrue(System.nanoTime() - lastWrite >= TimeUnit.MILLISECONDS.toNanos(100));
+        runQueued();
+        assertTrue(mStorage.isSnapshotCurrent());
+        assertEquals(Arrays.asList("first", "second"), mStorage.keys());
+    }
+
+    private void runQueued() {
+        while (!mQueued.isEmpty()) {
+            mQueued.remove(0).run();
+        }
+    }
+
+    private void reopen() throws Exception {
+        mLogStorage.close();
+        mQueued.clear();
+        open();
+    }
+
+    private void open() throws Exception {
+        mLogStorage = new LogStorage(new File(mFolder.getRoot(), "prefs.log"), mExecutor);
+        PreferenceStorage wrapped = new PreferenceStorage() {
+            @Override
+            public void open() throws IOException {
+                mLogStorage.open();
+            }
+
+            @Override
+            public Object get(String key) throws IOException {
+                return mLogStorage.get(key);
+            }
+
+            @Override
+            public Map<String, Object> getMany(Collection<String> keys) throws IOException {
+                return mLogStorage.getMany(keys);
+            }
+
+            @Override
+            public void scan(String fromKey, String toKey, int pageSize, PreferenceVisitor visitor)
+                    throws IOException {
+                if (mDuringScan != null) {
+                    mDuringScan.run();
+                }
+                mLogStorage.scan(fromKey, toKey, pageSize, visitor);
+            }
+
+            @Override
+            public List<String> keys() throws IOException {
+                return mLogStorage.keys();
+            }
+
+            @Override
+            public void write(Map<String, Object> changes, boolean clear, Durability durability)
+                    throws IOException {
+                mLogStorage.write(changes, clear, durability);
+            }
+        };
+        mStorage = new SnapshotStorage(wrapped, mSnapshotFile, mExecutor);
+        mStorage.setQuietPeriod(0);
+        mStorage.open();
+    }
+}
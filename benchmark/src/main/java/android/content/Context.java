@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import java.io.File;
+
+/**
+ * A context which keeps databases and files under one directory, the only parts of the framework
+ * context the store uses.
+ */
+public class Context {
+
+    private final File mDataDir;
+
+    public Context(File dataDir) {
+        mDataDir = dataDir;
+    }
+
+    public File getDatabasePath(String name) {
+        File databases = new File(mDataDir, "databases");
+        databases.mkdirs();
+        return new File(databases, name);
+    }
+
+    public File getFilesDir() {
+        File files = new File(mDataDir, "files");
+        files.mkdirs();
+        return files;
+    }
+}
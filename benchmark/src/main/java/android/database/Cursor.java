@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import java.io.Closeable;
+
+/**
+ * The part of the framework cursor the store reads results through.
+ */
+public interface Cursor extends Closeable {
+
+    int FIELD_TYPE_NULL = 0;
+
+    int FIELD_TYPE_INTEGER = 1;
+
+    int FIELD_TYPE_FLOAT = 2;
+
+    int FIELD_TYPE_STRING = 3;
+
+    int FIELD_TYPE_BLOB = 4;
+
+    int getCount();
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getColumnIndex(String columnName);
+
+    int getType(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    String getString(int columnIndex);
+
+    byte[] getBlob(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The framework database API over one JDBC connection to the same SQLite library.
+ * <p>
+ * Like the primary connection of the framework database, the connection is used by one thread at
+ * a time and a transaction keeps it until it ends, so reads of other threads wait for commits
+ * unless they are made on their own connection opened with {@link #openDatabase}. Transactions
+ * nest, the outermost one commits only if every nested one was marked successful. Cursors hold
+ * the whole result, they are small for the queries of the store.
+ */
+public final class SQLiteDatabase {
+
+    public static final int OPEN_READWRITE = 0x00000000;
+
+    public static final int OPEN_READONLY = 0x00000001;
+
+    public static final int CREATE_IF_NECESSARY = 0x10000000;
+
+    public interface CursorFactory {
+    }
+
+    private final String mPath;
+
+    private final Connection mConnection;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /*Guarded by mLock */
+    private int mTransactionDepth;
+
+    private boolean mTransactionSuccessful;
+
+    private boolean mTransactionFailed;
+
+    private SQLiteDatabase(String path, Connection connection) {
+        mPath = path;
+        mConnection = connection;
+    }
+
+    public static SQLiteDatabase openDatabase(String path, CursorFactory factory, int flags) {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly((flags & OPEN_READONLY) != 0);
+        try {
+            return new SQLiteDatabase(path, DriverManager.getConnection("jdbc:sqlite:" + path,
+                    config.toProperties()));
+        } catch (SQLException e) {
+            throw new SQLiteException("Can't open " + path, e);
+        }
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public int getVersion() {
+        return (int) compileStatement("PRAGMA user_version").simpleQueryForLong();
+    }
+
+    public void setVersion(int version) {
+        execSQL("PRAGMA user_version = " + version);
+    }
+
+    public boolean enableWriteAheadLogging() {
+        execSQL("PRAGMA journal_mode = WAL");
+        return true;
+    }
+
+    public void beginTransaction() {
+        acquire();
+        if (mTransactionDepth == 0) {
+            try {
+                execute("BEGIN EXCLUSIVE");
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+            mTransactionFailed = false;
+        } else if (!mTransactionSuccessful) {
+            mTransactionFailed = true;
+        }
+        mTransactionSuccessful = false;
+        mTransactionDepth++;
+    }
+
+    public void setTransactionSuccessful() {
+        checkTransaction();
+        mTransactionSuccessful = true;
+    }
+
+    public void endTransaction() {
+        checkTransaction();
+        try {
+            mTransactionFailed |= !mTransactionSuccessful;
+            /*The enclosing transaction marks itself successful again after the nested one */
+            mTransactionSuccessful = false;
+            if (--mTransactionDepth == 0) {
+                execute(mTransactionFailed ? "ROLLBACK" : "COMMIT");
+            }
+        } finally {
+            release();
+        }
+    }
+
+    public boolean inTransaction() {
+        return mLock.isHeldByCurrentThread() && mTransactionDepth > 0;
+    }
+
+    public void execSQL(String sql) {
+        acquire();
+        try {
+            execute(sql);
+        } finally {
+            release();
+        }
+    }
+
+    public void execSQL(String sql, Object[] bindArgs) {
+        acquire();
+        try {
+            PreparedStatement statement = mConnection.prepareStatement(sql);
+            try {
+                for (int i = 0; i < bindArgs.length; i++) {
+                    statement.setObject(i + 1, bindArgs[i]);
+                }
+                statement.execute();
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        } finally {
+            release();
+        }
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        acquire();
+        try {
+            return new SQLiteStatement(this, mConnection.prepareStatement(sql));
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        } finally {
+            release();
+        }
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        acquire();
+        try {
+            PreparedStatement statement = mConnection.prepareStatement(sql);
+            try {
+                if (selectionArgs != null) {
+                    for (int i = 0; i < selectionArgs.length; i++) {
+                        statement.setString(i + 1, selectionArgs[i]);
+                    }
+                }
+                return RowCursor.read(statement.executeQuery());
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        } finally {
+            release();
+        }
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                        String groupBy, String having, String orderBy) {
+        return query(table, columns, selection, selectionArgs, groupBy, having, orderBy, null);
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                        String groupBy, String having, String orderBy, String limit) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns == null) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ", ").append(columns[i]);
+            }
+        }
+        sql.append(" FROM ").append(table);
+        appendClause(sql, " WHERE ", selection);
+        appendClause(sql, " GROUP BY ", groupBy);
+        appendClause(sql, " HAVING ", having);
+        appendClause(sql, " ORDER BY ", orderBy);
+        appendClause(sql, " LIMIT ", limit);
+        return rawQuery(sql.toString(), selectionArgs);
+    }
+
+    public void close() {
+        acquire();
+        try {
+            mConnection.close();
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        } finally {
+            release();
+        }
+    }
+
+    void acquire() {
+        mLock.lock();
+    }
+
+    void release() {
+        mLock.unlock();
+    }
+
+    private void execute(String sql) {
+        try {
+            Statement statement = mConnection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        }
+    }
+
+    private void checkTransaction() {
+        if (!inTransaction()) {
+            throw new IllegalStateException("No transaction in progress on this thread");
+        }
+    }
+
+    private static void appendClause(StringBuilder sql, String name, String clause) {
+        if (clause != null && !clause.isEmpty()) {
+            sql.append(name).append(clause);
+        }
+    }
+
+    private static final class RowCursor implements Cursor {
+
+        private final Map<String, Integer> mColumns;
+
+        private final List<Object[]> mRows;
+
+        private int mPosition = -1;
+
+        private RowCursor(Map<String, Integer> columns, List<Object[]> rows) {
+            mColumns = columns;
+            mRows = rows;
+        }
+
+        static RowCursor read(ResultSet resultSet) throws SQLException {
+            try {
+                int columnCount = resultSet.getMetaData().getColumnCount();
+                Map<String, Integer> columns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (int i = 0; i < columnCount; i++) {
+                    columns.put(resultSet.getMetaData().getColumnLabel(i + 1), i);
+                }
+                List<Object[]> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        /*Blobs come back as byte arrays, the type is the one of the stored value */
+                        row[i] = resultSet.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+                return new RowCursor(columns, rows);
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            mPosition = 0;
+            return !mRows.isEmpty();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            if (mPosition < mRows.size()) {
+                mPosition++;
+            }
+            return mPosition < mRows.size();
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            Integer index = mColumns.get(columnName);
+            return index == null ? -1 : index;
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            Object value = value(columnIndex);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            } else if (value instanceof String) {
+                return FIELD_TYPE_STRING;
+            } else if (value instanceof Double || value instanceof Float) {
+                return FIELD_TYPE_FLOAT;
+            }
+            return FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        public boolean isNull(int columnIndex) {
+            return value(columnIndex) == null;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            Object value = value(columnIndex);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            return (byte[]) value(columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            Object value = value(columnIndex);
+            return value == null ? 0 : ((Number) value).longValue();
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return (int) getLong(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            Object value = value(columnIndex);
+            return value == null ? 0 : ((Number) value).doubleValue();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private Object value(int columnIndex) {
+            if (mPosition < 0 || mPosition >= mRows.size()) {
+                throw new IllegalStateException("Cursor is at " + mPosition + " of " + mRows.size());
+            }
+            return mRows.get(mPosition)[columnIndex];
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * Opens a database under {@link Context#getDatabasePath(String)} and runs create and upgrade
+ * callbacks against its {@code user_version}, like the framework helper.
+ */
+public abstract class SQLiteOpenHelper {
+
+    private final Context mContext;
+
+    private final String mName;
+
+    private final int mVersion;
+
+    private SQLiteDatabase mDatabase;
+
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+        mContext = context;
+        mName = name;
+        mVersion = version;
+    }
+
+    public String getDatabaseName() {
+        return mName;
+    }
+
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        if (mDatabase != null) {
+            return mDatabase;
+        }
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(mContext.getDatabasePath(mName).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY);
+        try {
+            int version = db.getVersion();
+            if (version != mVersion) {
+                db.beginTransaction();
+                try {
+                    if (version == 0) {
+                        onCreate(db);
+                    } else {
+                        onUpgrade(db, version, mVersion);
+                    }
+                    db.setVersion(mVersion);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            onOpen(db);
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        mDatabase = db;
+        return db;
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        return getWritableDatabase();
+    }
+
+    public synchronized void close() {
+        if (mDatabase != null) {
+            mDatabase.close();
+            mDatabase = null;
+        }
+    }
+
+    public void onOpen(SQLiteDatabase db) {
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A prepared statement of a {@link SQLiteDatabase}. Bindings are kept between executions like on
+ * the framework statement.
+ */
+public final class SQLiteStatement {
+
+    private final SQLiteDatabase mDatabase;
+
+    private final PreparedStatement mStatement;
+
+    SQLiteStatement(SQLiteDatabase database, PreparedStatement statement) {
+        mDatabase = database;
+        mStatement = statement;
+    }
+
+    public void bindString(int index, String value) {
+        try {
+            mStatement.setString(index, value);
+        } catch (SQLException e) {
+            throw new SQLiteException("Can't bind " + index, e);
+        }
+    }
+
+    public void bindLong(int index, long value) {
+        try {
+            mStatement.setLong(index, value);
+        } catch (SQLException e) {
+            throw new SQLiteException("Can't bind " + index, e);
+        }
+    }
+
+    public void bindBlob(int index, byte[] value) {
+        try {
+            mStatement.setBytes(index, value);
+        } catch (SQLException e) {
+            throw new SQLiteException("Can't bind " + index, e);
+        }
+    }
+
+    public void bindNull(int index) {
+        try {
+            mStatement.setObject(index, null);
+        } catch (SQLException e) {
+            throw new SQLiteException("Can't bind " + index, e);
+        }
+    }
+
+    public void execute() {
+        executeUpdateDelete();
+    }
+
+    /**
+     * @return always -1, the store doesn't use row ids and looking them up would be measured with it.
+     */
+    public long executeInsert() {
+        executeUpdateDelete();
+        return -1;
+    }
+
+    public int executeUpdateDelete() {
+        mDatabase.acquire();
+        try {
+            return mStatement.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        } finally {
+            mDatabase.release();
+        }
+    }
+
+    public long simpleQueryForLong() {
+        mDatabase.acquire();
+        try {
+            ResultSet resultSet = mStatement.executeQuery();
+            try {
+                if (!resultSet.next()) {
+                    throw new SQLiteException("Query returned no rows");
+                }
+                return resultSet.getLong(1);
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        } finally {
+            mDatabase.release();
+        }
+    }
+
+    public void close() {
+        try {
+            mStatement.close();
+        } catch (SQLException e) {
+            throw new SQLiteException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts runnables to the thread of a {@link Looper}. Like the framework handler, a runnable
+ * posted more than once is removed everywhere by {@link #removeCallbacks(Runnable)}.
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    /*Guarded by itself */
+    private final Map<Runnable, List<Future<?>>> mPending = new HashMap<>();
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(final Runnable r, long delayMillis) {
+        synchronized (mPending) {
+            final List<Future<?>> futures = futures(r);
+            final Future<?>[] self = new Future<?>[1];
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mPending) {
+                        futures.remove(self[0]);
+                        if (futures.isEmpty()) {
+                            mPending.remove(r);
+                        }
+                    }
+                    r.run();
+                }
+            };
+            /*The task can't run before the lock on mPending is released */
+            self[0] = mLooper.mExecutor.schedule(task, Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+            futures.add(self[0]);
+        }
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        synchronized (mPending) {
+            List<Future<?>> futures = mPending.remove(r);
+            if (futures != null) {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private List<Future<?>> futures(Runnable r) {
+        List<Future<?>> futures = mPending.get(r);
+        if (futures == null) {
+            futures = new ArrayList<>(1);
+            mPending.put(r, futures);
+        }
+        return futures;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.benchmark;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Edits of {@code batchSize} keys. {@link #apply()} measures what the calling thread pays,
+ * {@link #applyAndCommit()} also waits until the edits are written.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApplyBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int batchSize;
+
+    private BenchmarkStore mStore;
+
+    private String[] mKeys;
+
+    private int mRound;
+
+    @Setup
+    public void setUp() throws Exception {
+        mStore = new BenchmarkStore(0);
+        mKeys = BenchmarkStore.keys("key", batchSize);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mStore.close();
+    }
+
+    @Benchmark
+    public void apply() {
+        edit().apply();
+    }
+
+    @Benchmark
+    public boolean applyAndCommit() {
+        edit().apply();
+        return mStore.mPreferences.edit().commit();
+    }
+
+    private SharedPreferences.Editor edit() {
+        SharedPreferences.Editor editor = mStore.mPreferences.edit();
+        int round = mRound++;
+        for (String key : mKeys) {
+            editor.putInt(key, round);
+        }
+        return editor;
+    }
+}
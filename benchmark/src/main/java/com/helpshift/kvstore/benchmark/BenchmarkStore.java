@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.benchmark;
+
+import android.content.Context;
+
+import com.helpshift.kvstore.DefaultWriteScheduler;
+import com.helpshift.kvstore.SharedPreferencesImpl;
+import com.helpshift.kvstore.database.ReaderPool;
+import com.helpshift.kvstore.database.SQLiteDatabaseHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * A store in a temporary directory, set up the way {@link com.helpshift.kvstore.SharedPreferencesContext}
+ * sets up a database store, with a writer thread of its own.
+ */
+final class BenchmarkStore {
+
+    static final String PREFERENCE_NAME = "benchmark";
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    final SharedPreferencesImpl mPreferences;
+
+    private final File mDirectory;
+
+    private final SQLiteDatabaseHelper mDatabaseHelper;
+
+    private final DefaultWriteScheduler mWriteScheduler;
+
+    /**
+     * @param readerConnections connections reads are made on besides the one of the writer, 0 to
+     *                          read on the writer connection.
+     */
+    BenchmarkStore(int readerConnections) throws IOException {
+        mDirectory = Files.createTempDirectory("kvstore-benchmark").toFile();
+        mDatabaseHelper = new SQLiteDatabaseHelper(new Context(mDirectory));
+        mDatabaseHelper.setWriteAheadLoggingOnOpen(readerConnections > 0);
+        mWriteScheduler = DefaultWriteScheduler.threadPerStore(DefaultWriteScheduler.DEFAULT_QUEUE_CAPACITY);
+        mPreferences = new SharedPreferencesImpl(PREFERENCE_NAME, mDatabaseHelper, mWriteScheduler, false,
+                readerConnections > 0 ? new ReaderPool(mDatabaseHelper, readerConnections) : null);
+        mPreferences.openAsync(DIRECT);
+    }
+
+    /**
+     * Commits {@code count} keys of each type: {@code string<i>}, {@code int<i>} and {@code set<i>}.
+     */
+    void seed(int count) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            values.put(stringKey(i), "value of " + i);
+            values.put(intKey(i), i);
+            values.put(setKey(i), stringSet(i));
+            if (values.size() >= SEED_BATCH_SIZE) {
+                mPreferences.edit().putAll(values).commit();
+                values.clear();
+            }
+        }
+        mPreferences.edit().putAll(values).commit();
+    }
+
+    /**
+     * Waits for applied edits and removes the store.
+     */
+    void close() throws InterruptedException {
+        mPreferences.edit().commit();
+        mWriteScheduler.drain(Long.MAX_VALUE / 2);
+        mDatabaseHelper.close();
+        delete(mDirectory);
+    }
+
+    static String stringKey(int i) {
+        return "string" + i;
+    }
+
+    static String intKey(int i) {
+        return "int" + i;
+    }
+
+    static String setKey(int i) {
+        return "set" + i;
+    }
+
+    static String[] keys(String prefix, int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = prefix + i;
+        }
+        return keys;
+    }
+
+    private static Set<String> stringSet(int i) {
+        return new HashSet<>(Arrays.asList("a" + i, "b" + i, "c" + i, "d" + i));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
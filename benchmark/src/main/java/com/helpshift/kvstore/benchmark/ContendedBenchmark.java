@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readers and writers sharing one store. The read heavy group runs three readers per writer, the
+ * write heavy one a reader per three writers. With {@code cache} "miss" every read is a query,
+ * {@code readers} connections let those queries run while the writer holds its transaction.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContendedBenchmark {
+
+    private static final int KEY_COUNT = 1000;
+
+    @Param({"hit", "miss"})
+    public String cache;
+
+    @Param({"0", "4"})
+    public int readers;
+
+    private BenchmarkStore mStore;
+
+    private final String[] mKeys = BenchmarkStore.keys("string", KEY_COUNT);
+
+    @Setup
+    public void setUp() throws Exception {
+        mStore = new BenchmarkStore(readers);
+        mStore.seed(KEY_COUNT);
+        if ("hit".equals(cache)) {
+            mStore.mPreferences.loadFully();
+        } else {
+            mStore.mPreferences.setCacheBudget(0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mStore.close();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public String readHeavyRead() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public void readHeavyWrite() {
+        write();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public String writeHeavyRead() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(3)
+    public void writeHeavyWrite() {
+        write();
+    }
+
+    private String read() {
+        return mStore.mPreferences.getString(mKeys[ThreadLocalRandom.current().nextInt(KEY_COUNT)], null);
+    }
+
+    private void write() {
+        int i = ThreadLocalRandom.current().nextInt(KEY_COUNT);
+        mStore.mPreferences.edit().putString(mKeys[i], "value of " + i).apply();
+    }
+}
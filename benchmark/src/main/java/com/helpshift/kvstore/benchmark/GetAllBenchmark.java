@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getAll()} of stores with {@code size} keys of each type, copied from memory once the store
+ * is loaded, scanned from the table otherwise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetAllBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean loaded;
+
+    private BenchmarkStore mStore;
+
+    @Setup
+    public void setUp() throws Exception {
+        mStore = new BenchmarkStore(0);
+        mStore.seed(size);
+        if (loaded) {
+            /*Beyond the default budget entries are evicted and getAll() scans the table */
+            mStore.mPreferences.setCacheBudget(Long.MAX_VALUE);
+            mStore.mPreferences.loadFully();
+            if (!mStore.mPreferences.isFullyLoaded()) {
+                throw new IllegalStateException(size + " keys of each type don't fit in memory");
+            }
+        } else {
+            mStore.mPreferences.setCacheBudget(0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mStore.close();
+    }
+
+    @Benchmark
+    public Map<String, ?> getAll() {
+        return mStore.mPreferences.getAll();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016. Subham Tyagi
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helpshift.kvstore.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed reads of existing keys. A hit is answered by the value cache of a fully loaded store, a
+ * miss goes to the table because the cache budget is 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+
+    private static final int KEY_COUNT = 1000;
+
+    @Param({"hit", "miss"})
+    public String cache;
+
+    private BenchmarkStore mStore;
+
+    private final String[] mStringKeys = BenchmarkStore.keys("string", KEY_COUNT);
+
+    private final String[] mIntKeys = BenchmarkStore.keys("int", KEY_COUNT);
+
+    private final String[] mSetKeys = BenchmarkStore.keys("set", KEY_COUNT);
+
+    private int mNext;
+
+    @Setup
+    public void setUp() throws Exception {
+        mStore = new BenchmarkStore(0);
+        mStore.seed(KEY_COUNT);
+        if ("hit".equals(cache)) {
+            mStore.mPreferences.loadFully();
+        } else {
+            mStore.mPreferences.setCacheBudget(0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mStore.close();
+    }
+
+    @Benchmark
+    public String getString() {
+        return mStore.mPreferences.getString(mStringKeys[next()], null);
+    }
+
+    @Benchmark
+    public int getInt() {
+        return mStore.mPreferences.getInt(mIntKeys[next()], 0);
+    }
+
+    @Benchmark
+    public Set<String> getStringSet() {
+        return mStore.mPreferences.getStringSet(mSetKeys[next()], null);
+    }
+
+    private int next() {
+        mNext = mNext + 1 == KEY_COUNT ? 0 : mNext + 1;
+        return mNext;
+    }
+}